@@ -28,6 +28,10 @@
 package com.edugility.dbunit;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 
 import java.net.URL;
 
@@ -54,9 +58,11 @@ import org.dbunit.database.IDatabaseConnection;
 import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.DefaultDataSet;
 import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
 
 import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
 
+import org.dbunit.operation.CompositeOperation;
 import org.dbunit.operation.DatabaseOperation;
 
 import org.junit.Assert;
@@ -93,6 +99,26 @@ public class DbUnitRule extends ExternalResource {
    */
   private static final Map<Class<?>, TestClass> testClasses = new HashMap<Class<?>, TestClass>();
 
+  /**
+   * The {@link MetaDataCache} shared by the tests of the test class
+   * most recently run.
+   *
+   * <p>This field is {@code null} until a test has run.  Access to
+   * it must be synchronized on the {@link #testClasses} {@link
+   * Map}.</p>
+   *
+   * @see #getMetaDataCache()
+   */
+  private static MetaDataCache metaDataCache;
+
+  /**
+   * The test class whose tests share the {@link #metaDataCache}.
+   *
+   * <p>This field may be {@code null}.  Access to it must be
+   * synchronized on the {@link #testClasses} {@link Map}.</p>
+   */
+  private static Class<?> metaDataCacheOwner;
+
   /**
    * The JUnit test instance.
    *
@@ -115,6 +141,30 @@ public class DbUnitRule extends ExternalResource {
    */
   private final Map<Connection, IDatabaseTester> testers;
 
+  /**
+   * A {@link Map} of {@link LazyFixture}s indexed by the proxies they
+   * back.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see DbUnitTester#lazy()
+   */
+  private final Map<Object, LazyFixture> lazyFixtures;
+
+  /**
+   * The number of rows written by all {@link IDatabaseTester}s set
+   * up by this {@link DbUnitRule} during the current test.
+   */
+  private long setUpRows;
+
+  /**
+   * The number of nanoseconds spent setting up {@link
+   * IDatabaseTester}s during the current test, including any spent
+   * setting up {@linkplain DbUnitTester#lazy() lazy} fixtures after
+   * the {@link #before()} method has returned.
+   */
+  private long setUpNanos;
+
 
   /*
    * Constructors.
@@ -133,6 +183,7 @@ public class DbUnitRule extends ExternalResource {
     super();
     this.testInstance = testInstance;
     this.testers = new HashMap<Connection, IDatabaseTester>(7);
+    this.lazyFixtures = new HashMap<Object, LazyFixture>(7);
     Assert.assertNotNull(testInstance);
   }
 
@@ -175,11 +226,64 @@ public class DbUnitRule extends ExternalResource {
    * its associated {@link IDatabaseTester} may be retrieved by use of
    * the {@link #getIDatabaseTester(Connection)} method.</p>
    *
+   * <p>Fields annotated with a {@linkplain DbUnitTester#lazy() lazy}
+   * {@link DbUnitTester} annotation are injected with a proxy instead,
+   * and their {@link IDatabaseTester}s are not set up until the proxy
+   * is first used.</p>
+   *
+   * <p>The time taken by this method and the number of rows it
+   * writes, together with those of any lazy fixtures the test goes on
+   * to use, are recorded in a fixture cost report that is written to
+   * the build directory when the JVM exits.</p>
+   *
+   * <p>If this method throws an exception, then every {@link
+   * IDatabaseTester} it had already set up is torn down before the
+   * exception propagates, since JUnit will not call the {@link
+   * #after()} method.</p>
+   *
    * @exception Throwable if any of a host of errors occurs
+   *
+   * @see DbUnitTester#setUpBudget()
    */
   @Override
   protected void before() throws Throwable {
+    try {
+      this.setUp();
+    } catch (final Throwable throwMe) {
+      this.recordTestClassSetUp(this.description);
+      try {
+        this.tearDown();
+      } catch (final RuntimeException suppressed) {
+        // The original failure is the more useful one to report.
+      }
+      throw throwMe;
+    }
+  }
+
+  /**
+   * Performs the work of the {@link #before()} method.
+   *
+   * @exception Throwable if any of a host of errors occurs
+   */
+  private final void setUp() throws Throwable {
     Assert.assertNotNull(this.testInstance);
+    final long start = System.nanoTime();
+    this.setUpRows = 0L;
+    this.setUpNanos = 0L;
+    try {
+      this.processAnnotatedFields();
+    } finally {
+      this.setUpNanos += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Processes every field of the test class that is annotated with
+   * {@link DbUnitTester}.
+   *
+   * @exception Throwable if any of a host of errors occurs
+   */
+  private final void processAnnotatedFields() throws Throwable {
     final TestClass testClass = this.getTestClass();
     if (testClass != null) {
       final Collection<FrameworkField> annotatedFields = testClass.getAnnotatedFields(DbUnitTester.class);
@@ -212,6 +316,12 @@ public class DbUnitRule extends ExternalResource {
    * Returns a {@link IDatabaseTester} that is associated with the
    * supplied {@link Connection}.
    *
+   * <p>If the supplied {@link Connection} is a lazy proxy injected on
+   * behalf of a {@linkplain DbUnitTester#lazy() lazy} {@link
+   * DbUnitTester} annotation, then calling this method counts as
+   * using it, and its fixture will be loaded if it has not been
+   * already.</p>
+   *
    * @param key the {@link Connection} for which an {@link
    * IDatabaseTester} should be returned; may be {@code null} in which
    * case {@code null} will be returned
@@ -222,6 +332,19 @@ public class DbUnitRule extends ExternalResource {
     IDatabaseTester tester = null;
     if (key != null) {
       tester = this.testers.get(key);
+      if (tester == null) {
+        final LazyFixture lazyFixture = this.lazyFixtures.get(key);
+        if (lazyFixture != null) {
+          try {
+            lazyFixture.initialize();
+          } catch (final RuntimeException throwMe) {
+            throw throwMe;
+          } catch (final Exception everythingElse) {
+            throw new RuntimeException(everythingElse);
+          }
+          tester = lazyFixture.tester;
+        }
+      }
     }
     return tester;
   }
@@ -230,23 +353,77 @@ public class DbUnitRule extends ExternalResource {
     Assert.assertNotNull(f);
     Assert.assertTrue(IDatabaseTester.class.isAssignableFrom(f.getType()));
     Assert.assertNotNull(annotation);
-    IDatabaseTester tester = (IDatabaseTester)f.get(this.testInstance);
-    Assert.assertNull(tester);
-    tester = this.createIDatabaseTester(annotation, null);
-    Assert.assertNotNull(tester);
-    this.processIDatabaseTester(tester, this.getDataSetResourceName(f, annotation));
+    final boolean accessibility = f.isAccessible();
+    try {
+      f.setAccessible(true);
+      IDatabaseTester tester = (IDatabaseTester)f.get(this.testInstance);
+      Assert.assertNull(tester);
+      tester = this.createIDatabaseTester(annotation, null);
+      Assert.assertNotNull(tester);
+      final String dataSetResourceName = this.getDataSetResourceName(f, annotation);
+      if (annotation.lazy() && f.getType().isInterface()) {
+        f.set(this.testInstance, this.createLazyProxy(f.getType(), tester, annotation, dataSetResourceName, false));
+      } else {
+        this.processIDatabaseTester(tester, annotation, dataSetResourceName);
+        f.set(this.testInstance, tester);
+        enforceSetUpBudget(annotation, dataSetResourceName);
+      }
+    } finally {
+      f.setAccessible(accessibility);
+    }
   }
 
-  private final void processIDatabaseTester(final IDatabaseTester tester, final String dataSetResourceName) throws Exception {
+  private final Connection processIDatabaseTester(final IDatabaseTester tester, final DbUnitTester annotation, final String dataSetResourceName) throws Exception {
     Assert.assertNotNull(tester);
-    this.configureTester(tester, dataSetResourceName);
+    Assert.assertNotNull(annotation);
+    final long start = System.nanoTime();
+    this.configureTester(tester, annotation, dataSetResourceName);
     tester.onSetup();
+    final long setUpNanos = System.nanoTime() - start;
+    final long rows = countRows(tester.getDataSet());
+    this.setUpRows += rows;
+    FixtureCostReport.getInstance().recordDataSetSetUp(dataSetResourceName, setUpNanos, rows);
     final IDatabaseConnection idc = tester.getConnection();
     Assert.assertNotNull(idc);
     this.configureIDatabaseConnection(idc);
     final Connection c = idc.getConnection();
     Assert.assertNotNull(c);
     this.testers.put(c, tester);
+    return c;
+  }
+
+  /**
+   * Fails the current test if the 95th percentile set-up time of the
+   * named data set exceeds the {@linkplain DbUnitTester#setUpBudget()
+   * budget} specified by the supplied {@link DbUnitTester}.
+   *
+   * <p>The budget is not enforced until at least {@link
+   * DbUnitTester#setUpBudgetSamples()} loads of the data set have
+   * been recorded, so that a single slow load&mdash;typically the
+   * first one in a JVM&mdash;does not fail the build.</p>
+   *
+   * <p>This method must be called only after the {@link
+   * IDatabaseTester} that loaded the data set has been registered, so
+   * that it is torn down even if the budget is exceeded.</p>
+   *
+   * @param annotation the {@link DbUnitTester} specifying the budget;
+   * must not be {@code null}
+   *
+   * @param dataSetResourceName the name of the data set resource; may
+   * be {@code null}
+   *
+   * @exception AssertionError if the budget is exceeded
+   */
+  private static final void enforceSetUpBudget(final DbUnitTester annotation, final String dataSetResourceName) {
+    Assert.assertNotNull(annotation);
+    final long setUpBudget = annotation.setUpBudget();
+    final FixtureCostReport report = FixtureCostReport.getInstance();
+    if (setUpBudget >= 0L && report.getDataSetSetUpCount(dataSetResourceName) >= Math.max(1, annotation.setUpBudgetSamples())) {
+      final long p95 = report.getDataSetP95SetUpMillis(dataSetResourceName);
+      if (p95 > setUpBudget) {
+        Assert.fail("The 95th percentile set-up time of data set " + (dataSetResourceName == null ? FixtureCostReport.NO_DATA_SET : dataSetResourceName) + " (" + p95 + " ms) exceeds its budget of " + setUpBudget + " ms");
+      }
+    }
   }
 
   private final void processConnection(final Field f, final DbUnitTester annotation) throws Exception {
@@ -259,17 +436,68 @@ public class DbUnitRule extends ExternalResource {
       final Connection c = (Connection)f.get(this.testInstance);
       final IDatabaseTester tester = this.createIDatabaseTester(annotation, c);
       Assert.assertNotNull(tester);
-      this.processIDatabaseTester(tester, this.getDataSetResourceName(f, annotation));
-      if (c == null) {
-        final IDatabaseConnection idc = tester.getConnection();
-        Assert.assertNotNull(idc);
-        f.set(this.testInstance, idc.getConnection());
+      final String dataSetResourceName = this.getDataSetResourceName(f, annotation);
+      if (annotation.lazy() && c == null && f.getType().isInterface()) {
+        f.set(this.testInstance, this.createLazyProxy(f.getType(), tester, annotation, dataSetResourceName, true));
+      } else {
+        final Connection testerConnection = this.processIDatabaseTester(tester, annotation, dataSetResourceName);
+        if (c == null) {
+          f.set(this.testInstance, testerConnection);
+        }
+        enforceSetUpBudget(annotation, dataSetResourceName);
       }
     } finally {
       f.setAccessible(accessibility);
     }
   }
 
+  /**
+   * Creates and returns a proxy implementing the supplied {@code
+   * type} whose first use will cause the supplied {@link
+   * IDatabaseTester} to be set up, and which will thereafter forward
+   * all calls to either the {@link Connection} set up by that {@link
+   * IDatabaseTester} or to the {@link IDatabaseTester} itself.
+   *
+   * <p>Invocations of {@link Object#equals(Object)}, {@link
+   * Object#hashCode()} and {@link Object#toString()} on the returned
+   * proxy do not count as using it.  Nor, on an unused {@link
+   * Connection} proxy, do invocations of {@link Connection#close()},
+   * which merely marks the proxy as closed, or {@link
+   * Connection#isClosed()}.  Once an unused proxy has been closed,
+   * any other use of it fails with a {@link SQLException}.</p>
+   *
+   * @param type the interface the proxy must implement; must not be
+   * {@code null}
+   *
+   * @param tester the {@link IDatabaseTester} that will be set up on
+   * first use; must not be {@code null}
+   *
+   * @param annotation the {@link DbUnitTester} describing {@code
+   * tester}; must not be {@code null}
+   *
+   * @param dataSetResourceName a name as returned by the {@link
+   * #getDataSetResourceName(Field, DbUnitTester)} method; may be
+   * {@code null}
+   *
+   * @param connection whether calls should be forwarded to the
+   * {@link Connection} set up by {@code tester} ({@code true}) or to
+   * {@code tester} itself ({@code false})
+   *
+   * @return a non-{@code null} proxy implementing {@code type}
+   */
+  private final Object createLazyProxy(final Class<?> type, final IDatabaseTester tester, final DbUnitTester annotation, final String dataSetResourceName, final boolean connection) {
+    Assert.assertNotNull(type);
+    final LazyFixture lazyFixture = new LazyFixture(tester, annotation, dataSetResourceName, connection);
+    ClassLoader loader = type.getClassLoader();
+    if (loader == null) {
+      loader = Thread.currentThread().getContextClassLoader();
+    }
+    final Object proxy = Proxy.newProxyInstance(loader, new Class<?>[] { type }, lazyFixture);
+    Assert.assertNotNull(proxy);
+    this.lazyFixtures.put(proxy, lazyFixture);
+    return proxy;
+  }
+
   /**
    * Returns the name of a classpath resource that picks out a
    * classpath resource from which an {@link IDataSet} may be
@@ -420,8 +648,9 @@ public class DbUnitRule extends ExternalResource {
    * #getIDataSet(IDatabaseTester, String)} method and {@linkplain
    * IDatabaseTester#setDataSet(IDataSet) sets its return value on the
    * supplied <code>IDatabaseTester</code>}.  It then calls {@link
-   * IDatabaseTester#setSetUpOperation(DatabaseOperation)} with a
-   * value of {@link DatabaseOperation#CLEAN_INSERT}, and calls {@link
+   * IDatabaseTester#setSetUpOperation(DatabaseOperation)} with the
+   * return value of the {@link #getSetUpOperation(IDatabaseTester,
+   * String)} method, and calls {@link
    * IDatabaseTester#setTearDownOperation(DatabaseOperation)} with a
    * value of {@link DatabaseOperation#NONE}.</p>
    *
@@ -436,6 +665,8 @@ public class DbUnitRule extends ExternalResource {
    *
    * @see #getIDataSet(IDatabaseTester, String)
    *
+   * @see #getSetUpOperation(IDatabaseTester, String)
+   *
    * @see #getDataSetResourceName(Field, DbUnitTester)
    */
   protected void configureTester(final IDatabaseTester tester, final String dataSetResourceName) throws Exception {
@@ -443,10 +674,105 @@ public class DbUnitRule extends ExternalResource {
     final IDataSet dataSet = this.getIDataSet(tester, dataSetResourceName);
     Assert.assertNotNull(dataSet);
     tester.setDataSet(dataSet);
-    tester.setSetUpOperation(DatabaseOperation.CLEAN_INSERT);
+    final DatabaseOperation setUpOperation = this.getSetUpOperation(tester, dataSetResourceName);
+    Assert.assertNotNull(setUpOperation);
+    tester.setSetUpOperation(setUpOperation);
     tester.setTearDownOperation(DatabaseOperation.NONE);
   }
 
+  /**
+   * Returns the {@link DatabaseOperation} that loads the {@link
+   * IDataSet} of the supplied {@link IDatabaseTester}.
+   *
+   * <p>This method never returns {@code null} and overrides must
+   * ensure that {@code null} is not returned.</p>
+   *
+   * <p>The {@link #configureTester(IDatabaseTester, DbUnitTester,
+   * String)} method builds upon the return value of this method, so
+   * subclasses that wish to load fixtures differently should override
+   * this method rather than setting a set-up operation themselves.</p>
+   *
+   * <p>This implementation returns {@link
+   * DatabaseOperation#CLEAN_INSERT}.</p>
+   *
+   * @param tester the {@link IDatabaseTester} being configured;
+   * supplied as a convenience.  The value of this parameter is never
+   * {@code null}.
+   *
+   * @param dataSetResourceName a name as returned by the {@link
+   * #getDataSetResourceName(Field, DbUnitTester)} method; may be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link DatabaseOperation}
+   *
+   * @exception Exception if an error occurs
+   *
+   * @see #configureTester(IDatabaseTester, String)
+   */
+  protected DatabaseOperation getSetUpOperation(final IDatabaseTester tester, final String dataSetResourceName) throws Exception {
+    Assert.assertNotNull(tester);
+    return DatabaseOperation.CLEAN_INSERT;
+  }
+
+  /**
+   * Configures the supplied {@link IDatabaseTester} for use in
+   * accordance with the supplied {@link DbUnitTester} annotation.
+   *
+   * <p>This implementation calls the {@link
+   * #configureTester(IDatabaseTester, String)} method.  Then, if the
+   * value of the {@link DbUnitTester#setUpThreads()} attribute is
+   * greater than {@code 1} and the {@link
+   * DbUnitTester#connectionUrl()} attribute is set, the operation
+   * returned by the {@link #getSetUpOperation(IDatabaseTester,
+   * String)} method is wrapped in a {@link ParallelDatabaseOperation}
+   * that opens its additional connections using an {@link
+   * IDatabaseTester} returned by the {@link
+   * #createIDatabaseTester(DbUnitTester, Connection)} method.  If the
+   * value of the {@link DbUnitTester#resetSequences()} attribute is
+   * {@code true}, a {@link SequenceResetOperation} is appended to
+   * that operation.  If either attribute applies, the result is
+   * {@linkplain IDatabaseTester#setSetUpOperation(DatabaseOperation)
+   * set on the supplied <code>IDatabaseTester</code>}.</p>
+   *
+   * @param tester the {@link IDatabaseTester} to configure.  The
+   * value of this parameter is never {@code null}.
+   *
+   * @param annotation the {@link DbUnitTester} annotation describing
+   * {@code tester}.  The value of this parameter is never {@code
+   * null}.
+   *
+   * @param dataSetResourceName a name as returned by the {@link
+   * #getDataSetResourceName(Field, DbUnitTester)} method; may be
+   * {@code null}
+   *
+   * @exception Exception if an error occurs
+   *
+   * @see #configureTester(IDatabaseTester, String)
+   *
+   * @see ParallelDatabaseOperation
+   *
+   * @see SequenceResetOperation
+   */
+  protected void configureTester(final IDatabaseTester tester, final DbUnitTester annotation, final String dataSetResourceName) throws Exception {
+    Assert.assertNotNull(tester);
+    Assert.assertNotNull(annotation);
+    this.configureTester(tester, dataSetResourceName);
+    final DatabaseOperation baseSetUpOperation = this.getSetUpOperation(tester, dataSetResourceName);
+    Assert.assertNotNull(baseSetUpOperation);
+    DatabaseOperation setUpOperation = baseSetUpOperation;
+    final int setUpThreads = annotation.setUpThreads();
+    final String connectionUrl = annotation.connectionUrl();
+    if (setUpThreads > 1 && connectionUrl != null && !connectionUrl.isEmpty()) {
+      setUpOperation = new ParallelDatabaseOperation(setUpOperation, this.createIDatabaseTester(annotation, null), setUpThreads, this.getMetaDataCache());
+    }
+    if (annotation.resetSequences()) {
+      setUpOperation = new CompositeOperation(setUpOperation, new SequenceResetOperation(this.getMetaDataCache()));
+    }
+    if (setUpOperation != baseSetUpOperation) {
+      tester.setSetUpOperation(setUpOperation);
+    }
+  }
+
   /**
    * Configures the supplied {@link IDatabaseConnection}.
    *
@@ -467,7 +793,36 @@ public class DbUnitRule extends ExternalResource {
    */
   @Override
   protected void after() {
+    final Description description = this.description;
     this.description = null;
+    this.recordTestClassSetUp(description);
+    final long start = System.nanoTime();
+    this.tearDown();
+    if (description != null) {
+      FixtureCostReport.getInstance().recordTestClassTearDown(description.getTestClass(), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Records the set-up time and rows written during the current test
+   * against the test class described by the supplied {@link
+   * Description}.
+   *
+   * @param description the {@link Description} of the current test;
+   * may be {@code null} in which case no action will be taken
+   */
+  private final void recordTestClassSetUp(final Description description) {
+    if (description != null) {
+      FixtureCostReport.getInstance().recordTestClassSetUp(description.getTestClass(), this.setUpNanos, this.setUpRows);
+    }
+  }
+
+  /**
+   * Calls the {@link IDatabaseTester#onTearDown()} method on every
+   * {@link IDatabaseTester} instance registered with this {@link
+   * DbUnitRule}.
+   */
+  private final void tearDown() {
     if (this.testers != null && !this.testers.isEmpty()) {
       final Iterable<Entry<Connection, IDatabaseTester>> entrySet = this.testers.entrySet();
       if (entrySet != null) {
@@ -489,6 +844,249 @@ public class DbUnitRule extends ExternalResource {
     }
   }
 
+  /**
+   * Returns the total number of rows contained by the supplied
+   * {@link IDataSet}.
+   *
+   * @param dataSet the {@link IDataSet} whose rows should be counted;
+   * may be {@code null} in which case {@code 0} will be returned
+   *
+   * @return the total number of rows in {@code dataSet}
+   *
+   * @exception DataSetException if {@code dataSet} could not be read
+   */
+  private static final long countRows(final IDataSet dataSet) throws DataSetException {
+    long rows = 0L;
+    if (dataSet != null) {
+      final String[] tableNames = dataSet.getTableNames();
+      if (tableNames != null) {
+        for (final String tableName : tableNames) {
+          if (tableName != null) {
+            final ITable table = dataSet.getTable(tableName);
+            if (table != null) {
+              rows += table.getRowCount();
+            }
+          }
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * An {@link InvocationHandler} that backs a proxy injected on
+   * behalf of a {@linkplain DbUnitTester#lazy() lazy} {@link
+   * DbUnitTester} annotation, and that sets up its {@link
+   * IDatabaseTester} the first time the proxy is used.
+   *
+   * <p>An {@link IDatabaseTester} is registered with its {@link
+   * DbUnitRule}&mdash;and hence torn down by its {@link #after()}
+   * method&mdash;only once it has been set up.</p>
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private final class LazyFixture implements InvocationHandler {
+
+    /**
+     * The {@link IDatabaseTester} to set up on first use.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final IDatabaseTester tester;
+
+    /**
+     * The {@link DbUnitTester} describing the {@link #tester}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final DbUnitTester annotation;
+
+    /**
+     * The name of the data set resource to load on first use.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final String dataSetResourceName;
+
+    /**
+     * Whether calls are forwarded to the {@link Connection} set up by
+     * the {@link #tester} rather than to the {@link #tester} itself.
+     */
+    private final boolean connection;
+
+    /**
+     * The object to which calls are forwarded.
+     *
+     * <p>This field is {@code null} until the {@link #initialize()}
+     * method has completed successfully.</p>
+     */
+    private Object target;
+
+    /**
+     * Whether {@link Connection#close()} was called on the proxy
+     * before it was ever used, after which it can no longer be set
+     * up.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a new {@link LazyFixture}.
+     *
+     * @param tester the {@link IDatabaseTester} to set up on first
+     * use; must not be {@code null}
+     *
+     * @param annotation the {@link DbUnitTester} describing {@code
+     * tester}; must not be {@code null}
+     *
+     * @param dataSetResourceName the name of the data set resource
+     * to load on first use; may be {@code null}
+     *
+     * @param connection whether calls are forwarded to the {@link
+     * Connection} set up by {@code tester} rather than to {@code
+     * tester} itself
+     */
+    private LazyFixture(final IDatabaseTester tester, final DbUnitTester annotation, final String dataSetResourceName, final boolean connection) {
+      super();
+      Assert.assertNotNull(tester);
+      Assert.assertNotNull(annotation);
+      this.tester = tester;
+      this.annotation = annotation;
+      this.dataSetResourceName = dataSetResourceName;
+      this.connection = connection;
+    }
+
+    /**
+     * Sets up the {@link #tester} if it has not already been set up,
+     * and returns the object to which calls should be forwarded.
+     *
+     * @return a non-{@code null} object
+     *
+     * @exception SQLException if the proxy was closed before it was
+     * ever used
+     *
+     * @exception Exception if the {@link #tester} could not be set up
+     */
+    private final synchronized Object initialize() throws Exception {
+      if (this.target == null) {
+        if (this.closed) {
+          throw new SQLException("Connection is closed");
+        }
+        final long start = System.nanoTime();
+        final Connection c;
+        try {
+          c = processIDatabaseTester(this.tester, this.annotation, this.dataSetResourceName);
+        } finally {
+          setUpNanos += System.nanoTime() - start;
+        }
+        if (this.connection) {
+          this.target = c;
+        } else {
+          this.target = this.tester;
+        }
+        enforceSetUpBudget(this.annotation, this.dataSetResourceName);
+      }
+      return this.target;
+    }
+
+    /**
+     * Handles an invocation of the supplied {@link Method} on the
+     * supplied proxy by setting up the {@link #tester} if necessary
+     * and forwarding the invocation.
+     *
+     * @param proxy the proxy; must not be {@code null}
+     *
+     * @param method the {@link Method} invoked; must not be {@code
+     * null}
+     *
+     * @param arguments the arguments to the invocation; may be {@code
+     * null}
+     *
+     * @return the result of the invocation
+     *
+     * @exception Throwable if the {@link #tester} could not be set up
+     * or if the forwarded invocation threw an exception
+     */
+    @Override
+    public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+      if (method.getDeclaringClass().equals(Object.class)) {
+        final String name = method.getName();
+        if ("equals".equals(name)) {
+          return Boolean.valueOf(arguments != null && arguments.length == 1 && proxy == arguments[0]);
+        } else if ("hashCode".equals(name)) {
+          return Integer.valueOf(System.identityHashCode(proxy));
+        } else if ("toString".equals(name)) {
+          final Object target;
+          synchronized (this) {
+            target = this.target;
+          }
+          return target == null ? "Lazy " + this.tester : String.valueOf(target);
+        }
+      } else if (this.connection && (arguments == null || arguments.length == 0)) {
+        // Closing or checking a Connection that was never used is not
+        // a use of it; an @After method that closes it must not load
+        // the fixture.
+        synchronized (this) {
+          if (this.target == null) {
+            final String name = method.getName();
+            if ("close".equals(name)) {
+              this.closed = true;
+              return null;
+            } else if ("isClosed".equals(name)) {
+              return Boolean.valueOf(this.closed);
+            }
+          }
+        }
+      }
+      final Object target;
+      try {
+        target = this.initialize();
+      } catch (final Exception everythingElse) {
+        for (final Class<?> exceptionType : method.getExceptionTypes()) {
+          if (exceptionType.isInstance(everythingElse)) {
+            throw everythingElse;
+          }
+        }
+        if (this.connection) {
+          // Every Connection method that can fail declares
+          // SQLException.
+          throw new SQLException(everythingElse.getMessage(), everythingElse);
+        }
+        throw everythingElse;
+      }
+      try {
+        return method.invoke(target, arguments);
+      } catch (final InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+  }
+
+  /**
+   * Returns the {@link MetaDataCache} shared by the tests of the
+   * current test class.
+   *
+   * <p>A new {@link MetaDataCache} is created whenever the test class
+   * changes, since test classes commonly create their own schemas in
+   * the same in-memory database.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link MetaDataCache}
+   */
+  private final MetaDataCache getMetaDataCache() {
+    final Description description = this.description;
+    final Class<?> c = description == null ? null : description.getTestClass();
+    synchronized (testClasses) {
+      if (metaDataCache == null || c == null || c != metaDataCacheOwner) {
+        metaDataCache = new MetaDataCache();
+        metaDataCacheOwner = c;
+      }
+      return metaDataCache;
+    }
+  }
+
   /**
    * Returns a {@link TestClass} suitable for this {@link DbUnitRule}
    * after indexing it in the {@link #testClasses} {@link Map} under
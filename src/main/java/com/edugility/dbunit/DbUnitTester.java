@@ -83,18 +83,70 @@ public @interface DbUnitTester {
    */
   String dataSetResource() default "";
 
+  /**
+   * Whether the annotated field should be injected with a proxy that
+   * sets up the {@link IDatabaseTester} described by this annotation
+   * only when it is first used.  If it is never used during a test,
+   * then no data set is loaded and no tear-down takes place.  This
+   * has no effect on fields whose type is not an interface, or on
+   * {@link Connection} fields that already hold a
+   * connection when the test starts, such as one supplied by another
+   * rule.
+   */
+  boolean lazy() default false;
+
   /**
    * A password to use when connecting to the database.  If its value
    * is "{@code null}", then {@code null} will be used instead.
    */
   String password() default "null";
 
+  /**
+   * Whether the sequences and identity columns belonging to the
+   * tables of this annotation's {@linkplain #dataSetResource() data
+   * set} should be realigned with the data set's contents after it
+   * is loaded.
+   *
+   * @see SequenceResetOperation
+   */
+  boolean resetSequences() default false;
+
   /**
    * The schema under test.  If its value is "{@code null}", then
    * {@code null} will be used instead.
    */
   String schema() default "null";
 
+  /**
+   * The maximum number of milliseconds that the 95th percentile of
+   * all loads of this annotation's {@linkplain #dataSetResource()
+   * data set} may take before the test using it fails.  If its value
+   * is negative, then no budget is enforced.
+   *
+   * @see #setUpBudgetSamples()
+   */
+  long setUpBudget() default -1L;
+
+  /**
+   * The number of loads of this annotation's {@linkplain
+   * #dataSetResource() data set} that must have been recorded before
+   * its {@linkplain #setUpBudget() set-up budget} is enforced.  With
+   * fewer samples than this the 95th percentile is little more than
+   * the slowest load, which is usually the first, cold one.
+   */
+  int setUpBudgetSamples() default 20;
+
+  /**
+   * The maximum number of connections over which groups of tables
+   * that share no foreign keys will be loaded concurrently.  Values
+   * greater than {@code 1} take effect only if {@link
+   * #connectionUrl()} is also set, since additional connections are
+   * opened using it.
+   *
+   * @see ParallelDatabaseOperation
+   */
+  int setUpThreads() default 1;
+
   /**
    * The username to use when connecting to the database.  If its
    * value is "{@code null}", then {@code null} will be used instead.
@@ -0,0 +1,532 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * A collector of the costs incurred by {@link DbUnitRule} instances
+ * as they set up and tear down their fixtures.
+ *
+ * <p>Costs are aggregated both by test class and by data set
+ * resource name.  {@link DbUnitRule} records its costs in the
+ * {@linkplain #getInstance() JVM-wide instance}.  When the JVM
+ * exits, that instance's aggregates are written as
+ * comma-separated values to a file in the directory named by the
+ * {@code maven.project.build.directory} system property, or in
+ * {@code target} if that property is not set.  Each JVM writes its
+ * own file, named {@value #REPORT_FILE_PREFIX}<i>id</i>{@value
+ * #REPORT_FILE_SUFFIX}, where <i>id</i> identifies the JVM, so that
+ * test runs forked into several JVMs do not overwrite one another's
+ * reports.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DbUnitRule
+ */
+final class FixtureCostReport {
+
+  /**
+   * The prefix of the name of the file to which the report is
+   * written.
+   */
+  static final String REPORT_FILE_PREFIX = "dbunitunit-fixture-costs-";
+
+  /**
+   * The suffix of the name of the file to which the report is
+   * written.
+   */
+  static final String REPORT_FILE_SUFFIX = ".csv";
+
+  /**
+   * The key under which fixtures that have no data set resource name
+   * are aggregated.
+   */
+  static final String NO_DATA_SET = "(none)";
+
+  /**
+   * A {@link Map} of {@link Aggregate}s indexed by the names of test
+   * classes.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, Aggregate> byTestClass;
+
+  /**
+   * A {@link Map} of {@link Aggregate}s indexed by data set resource
+   * names.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, Aggregate> byDataSet;
+
+  /**
+   * The JVM-wide {@link FixtureCostReport}, which is written to the
+   * {@linkplain #getReportFile() report file} when the JVM exits.
+   *
+   * <p>This field is {@code null} until the {@link #getInstance()}
+   * method is first called.  Access to this field must be
+   * synchronized on the {@link FixtureCostReport} class.</p>
+   */
+  private static FixtureCostReport instance;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new, empty {@link FixtureCostReport} that is not
+   * written anywhere unless its {@link #write(File)} method is
+   * called.
+   *
+   * @see #getInstance()
+   */
+  FixtureCostReport() {
+    super();
+    this.byTestClass = new TreeMap<String, Aggregate>();
+    this.byDataSet = new TreeMap<String, Aggregate>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Records the loading of a single data set.
+   *
+   * @param dataSetResourceName the name of the data set resource
+   * that was loaded; may be {@code null}
+   *
+   * @param setUpNanos the number of nanoseconds the load took
+   *
+   * @param rows the number of rows written
+   */
+  final void recordDataSetSetUp(final String dataSetResourceName, final long setUpNanos, final long rows) {
+    final Aggregate aggregate = getAggregate(this.byDataSet, dataSetResourceName == null ? NO_DATA_SET : dataSetResourceName);
+    assert aggregate != null;
+    aggregate.recordSetUp(setUpNanos, rows);
+  }
+
+  /**
+   * Returns the number of loads of the named data set recorded so
+   * far.
+   *
+   * @param dataSetResourceName the name of the data set resource; may
+   * be {@code null}
+   *
+   * @return the number of loads recorded so far
+   */
+  final int getDataSetSetUpCount(final String dataSetResourceName) {
+    final Aggregate aggregate;
+    synchronized (this) {
+      aggregate = this.byDataSet.get(dataSetResourceName == null ? NO_DATA_SET : dataSetResourceName);
+    }
+    return aggregate == null ? 0 : aggregate.getSetUpCount();
+  }
+
+  /**
+   * Returns the 95th percentile set-up time, in milliseconds, of all
+   * loads of the named data set recorded so far.
+   *
+   * @param dataSetResourceName the name of the data set resource; may
+   * be {@code null}
+   *
+   * @return the 95th percentile set-up time in milliseconds, or
+   * {@code 0} if no loads have been recorded
+   */
+  final long getDataSetP95SetUpMillis(final String dataSetResourceName) {
+    final Aggregate aggregate;
+    synchronized (this) {
+      aggregate = this.byDataSet.get(dataSetResourceName == null ? NO_DATA_SET : dataSetResourceName);
+    }
+    return aggregate == null ? 0L : aggregate.getP95SetUpMillis();
+  }
+
+  /**
+   * Records the setting up of all fixtures required by a single test
+   * of the supplied test class.
+   *
+   * @param testClass the test class; may be {@code null} in which
+   * case no action will be taken
+   *
+   * @param setUpNanos the number of nanoseconds the set-up took
+   *
+   * @param rows the number of rows written
+   */
+  final void recordTestClassSetUp(final Class<?> testClass, final long setUpNanos, final long rows) {
+    if (testClass != null) {
+      final Aggregate aggregate = getAggregate(this.byTestClass, testClass.getName());
+      assert aggregate != null;
+      aggregate.recordSetUp(setUpNanos, rows);
+    }
+  }
+
+  /**
+   * Records the tearing down of all fixtures set up for a single test
+   * of the supplied test class.
+   *
+   * @param testClass the test class; may be {@code null} in which
+   * case no action will be taken
+   *
+   * @param tearDownNanos the number of nanoseconds the tear-down
+   * took
+   */
+  final void recordTestClassTearDown(final Class<?> testClass, final long tearDownNanos) {
+    if (testClass != null) {
+      final Aggregate aggregate = getAggregate(this.byTestClass, testClass.getName());
+      assert aggregate != null;
+      aggregate.recordTearDown(tearDownNanos);
+    }
+  }
+
+  /**
+   * Returns the {@link Aggregate} indexed under the supplied {@code
+   * key} in the supplied {@link Map}, creating and indexing it first
+   * if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param map the {@link Map} to look in; must not be {@code null}
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link Aggregate}
+   */
+  private final Aggregate getAggregate(final Map<String, Aggregate> map, final String key) {
+    assert map != null;
+    assert key != null;
+    synchronized (this) {
+      Aggregate aggregate = map.get(key);
+      if (aggregate == null) {
+        aggregate = new Aggregate();
+        map.put(key, aggregate);
+      }
+      return aggregate;
+    }
+  }
+
+  /**
+   * Writes all aggregates recorded so far to the supplied {@link
+   * File} as comma-separated values.
+   *
+   * <p>The first line of the file is a header line naming each
+   * column.</p>
+   *
+   * @param file the {@link File} to write to; must not be {@code
+   * null}
+   *
+   * @exception IOException if the {@link File} could not be written
+   */
+  final void write(final File file) throws IOException {
+    assert file != null;
+    synchronized (this) {
+      if (this.byTestClass.isEmpty() && this.byDataSet.isEmpty()) {
+        return;
+      }
+      final File directory = file.getAbsoluteFile().getParentFile();
+      if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create directory " + directory);
+      }
+      final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      try {
+        writer.println("kind,name,invocations,totalSetUpMillis,p95SetUpMillis,totalTearDownMillis,rowsWritten");
+        write(writer, "testClass", this.byTestClass);
+        write(writer, "dataSet", this.byDataSet);
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Writes one line for every {@link Aggregate} in the supplied
+   * {@link Map} to the supplied {@link PrintWriter}.
+   *
+   * @param writer the {@link PrintWriter} to write to; must not be
+   * {@code null}
+   *
+   * @param kind the kind of aggregate being written; must not be
+   * {@code null}
+   *
+   * @param map the {@link Map} of {@link Aggregate}s to write; must
+   * not be {@code null}
+   */
+  private final void write(final PrintWriter writer, final String kind, final Map<String, Aggregate> map) {
+    assert writer != null;
+    assert kind != null;
+    assert map != null;
+    for (final Entry<String, Aggregate> entry : map.entrySet()) {
+      if (entry != null) {
+        final Aggregate aggregate = entry.getValue();
+        if (aggregate != null) {
+          writer.print(kind);
+          writer.print(',');
+          writer.print(quote(entry.getKey()));
+          writer.print(',');
+          aggregate.write(writer);
+          writer.println();
+        }
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the JVM-wide {@link FixtureCostReport}, creating it and
+   * arranging for it to be written to the {@linkplain
+   * #getReportFile() report file} when the JVM exits if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} JVM-wide {@link FixtureCostReport}
+   */
+  static final synchronized FixtureCostReport getInstance() {
+    if (instance == null) {
+      final FixtureCostReport report = new FixtureCostReport();
+      Runtime.getRuntime().addShutdownHook(new Thread("DbUnitUnit fixture cost report writer") {
+          @Override
+          public final void run() {
+            try {
+              report.write(getReportFile());
+            } catch (final IOException ignore) {
+              // Nothing useful can be done with this during shutdown.
+            }
+          }
+        });
+      instance = report;
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the {@link File} to which this JVM's report should be
+   * written.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link File}
+   *
+   * @see #getJvmId()
+   */
+  static final File getReportFile() {
+    return new File(System.getProperty("maven.project.build.directory", "target"), REPORT_FILE_PREFIX + getJvmId() + REPORT_FILE_SUFFIX);
+  }
+
+  /**
+   * Returns a {@link String} that distinguishes this JVM from the
+   * other JVMs of the same test run.
+   *
+   * <p>This implementation returns the process identifier, which by
+   * convention is the part of the {@linkplain
+   * java.lang.management.RuntimeMXBean#getName() runtime name}
+   * preceding its {@code @} character.  If that is not available, it
+   * returns the value of the {@code surefire.forkNumber} system
+   * property, and failing that the time at which this method was
+   * called.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} identifier
+   */
+  static final String getJvmId() {
+    final String name = ManagementFactory.getRuntimeMXBean().getName();
+    if (name != null) {
+      final int at = name.indexOf('@');
+      if (at > 0) {
+        return name.substring(0, at);
+      }
+    }
+    final String forkNumber = System.getProperty("surefire.forkNumber");
+    if (forkNumber != null && !forkNumber.isEmpty()) {
+      return forkNumber;
+    }
+    return String.valueOf(System.currentTimeMillis());
+  }
+
+  /**
+   * Quotes the supplied {@link String} for inclusion in a
+   * comma-separated values file, if necessary.
+   *
+   * @param s the {@link String} to quote; may be {@code null}
+   *
+   * @return the quoted {@link String}, or the empty {@link String}
+   * if {@code s} is {@code null}
+   */
+  private static final String quote(final String s) {
+    if (s == null) {
+      return "";
+    }
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0) {
+      return s;
+    }
+    return new StringBuilder("\"").append(s.replace("\"", "\"\"")).append('"').toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The costs of all invocations of a particular fixture.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Aggregate {
+
+    /**
+     * The set-up times, in nanoseconds, of every recorded
+     * invocation.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Long> setUpNanos;
+
+    /**
+     * The total tear-down time, in nanoseconds, of every recorded
+     * invocation.
+     */
+    private long tearDownNanos;
+
+    /**
+     * The total number of rows written by every recorded invocation.
+     */
+    private long rows;
+
+    /**
+     * Creates a new {@link Aggregate}.
+     */
+    private Aggregate() {
+      super();
+      this.setUpNanos = new ArrayList<Long>();
+    }
+
+    /**
+     * Records a set-up.
+     *
+     * @param nanos the number of nanoseconds the set-up took
+     *
+     * @param rows the number of rows written
+     */
+    private final synchronized void recordSetUp(final long nanos, final long rows) {
+      this.setUpNanos.add(Long.valueOf(nanos));
+      this.rows += rows;
+    }
+
+    /**
+     * Records a tear-down.
+     *
+     * @param nanos the number of nanoseconds the tear-down took
+     */
+    private final synchronized void recordTearDown(final long nanos) {
+      this.tearDownNanos += nanos;
+    }
+
+    /**
+     * Returns the number of set-ups recorded.
+     *
+     * @return the number of set-ups recorded
+     */
+    private final synchronized int getSetUpCount() {
+      return this.setUpNanos.size();
+    }
+
+    /**
+     * Returns the 95th percentile set-up time in milliseconds.
+     *
+     * @return the 95th percentile set-up time in milliseconds, or
+     * {@code 0} if no set-ups have been recorded
+     */
+    private final synchronized long getP95SetUpMillis() {
+      final int size = this.setUpNanos.size();
+      if (size <= 0) {
+        return 0L;
+      }
+      final long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = this.setUpNanos.get(i).longValue();
+      }
+      Arrays.sort(sorted);
+      final int index = Math.max(0, (int)Math.ceil(0.95D * size) - 1);
+      return sorted[index] / 1000000L;
+    }
+
+    /**
+     * Writes this {@link Aggregate}'s columns to the supplied {@link
+     * PrintWriter}.
+     *
+     * @param writer the {@link PrintWriter} to write to; must not be
+     * {@code null}
+     */
+    private final synchronized void write(final PrintWriter writer) {
+      assert writer != null;
+      long totalSetUpNanos = 0L;
+      for (final Long nanos : this.setUpNanos) {
+        if (nanos != null) {
+          totalSetUpNanos += nanos.longValue();
+        }
+      }
+      writer.print(this.setUpNanos.size());
+      writer.print(',');
+      writer.print(totalSetUpNanos / 1000000L);
+      writer.print(',');
+      writer.print(this.getP95SetUpMillis());
+      writer.print(',');
+      writer.print(this.tearDownNanos / 1000000L);
+      writer.print(',');
+      writer.print(this.rows);
+    }
+
+  }
+
+}
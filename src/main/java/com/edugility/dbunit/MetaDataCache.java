@@ -0,0 +1,400 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A cache of the database metadata consulted by the {@link
+ * org.dbunit.operation.DatabaseOperation}s in this package, so that
+ * it need not be read again on every {@link
+ * org.dbunit.IDatabaseTester#onSetup()}.
+ *
+ * <p>Entries are indexed by database URL, schema and table, and are
+ * read the first time they are needed.  A {@link MetaDataCache} is
+ * meant to live no longer than the schema it describes stays
+ * unchanged; {@link DbUnitRule} uses one per test class, and it may
+ * be {@linkplain #clear() cleared} at any time.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ParallelDatabaseOperation
+ *
+ * @see SequenceResetOperation
+ */
+final class MetaDataCache {
+
+  /**
+   * A {@link Map} of {@link List}s of the tables referenced by
+   * foreign keys, each represented as a two-element array of schema
+   * and table name, indexed by {@linkplain #key(DatabaseMetaData,
+   * String, String) key} of the referencing table.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, List<String[]>> importedKeys;
+
+  /**
+   * A {@link Map} of {@link List}s of columns, each represented as a
+   * five-element array of schema, table name, column name, {@code
+   * COLUMN_DEF} value and {@code IS_AUTOINCREMENT} value, indexed by
+   * {@linkplain #key(DatabaseMetaData, String, String) key} of the
+   * table.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Map<String, List<String[]>> columns;
+
+  /**
+   * A {@link Set} of {@linkplain #key(DatabaseMetaData, String,
+   * String) keys}, each with an empty table name, identifying the
+   * schemas whose columns have all been read into the {@link
+   * #columns} {@link Map}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Set<String> schemasRead;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new, empty {@link MetaDataCache}.
+   */
+  MetaDataCache() {
+    super();
+    this.importedKeys = new HashMap<String, List<String[]>>();
+    this.columns = new HashMap<String, List<String[]>>();
+    this.schemasRead = new HashSet<String>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Discards everything this {@link MetaDataCache} has read.
+   */
+  final synchronized void clear() {
+    this.importedKeys.clear();
+    this.columns.clear();
+    this.schemasRead.clear();
+  }
+
+  /**
+   * Returns the tables referenced by the foreign keys of the named
+   * table, reading them from the supplied {@link DatabaseMetaData}
+   * if they have not been read already.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param schema the schema of the table; may be {@code null}
+   *
+   * @param tableName the name of the table; must not be {@code null}
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of
+   * two-element arrays, each holding the schema (possibly {@code
+   * null}) and name of a referenced table
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  final List<String[]> getImportedKeys(final DatabaseMetaData metaData, final String schema, final String tableName) throws SQLException {
+    assert metaData != null;
+    assert tableName != null;
+    final String key = key(metaData, schema, tableName);
+    synchronized (this) {
+      final List<String[]> cached = this.importedKeys.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final List<String[]> referencedTables = new ArrayList<String[]>();
+    final ResultSet rs = metaData.getImportedKeys(null, toIdentifierCase(metaData, schema), toIdentifierCase(metaData, tableName));
+    if (rs != null) {
+      try {
+        while (rs.next()) {
+          final String referencedTableName = rs.getString("PKTABLE_NAME");
+          if (referencedTableName != null) {
+            referencedTables.add(new String[] { rs.getString("PKTABLE_SCHEM"), referencedTableName });
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    }
+    final List<String[]> returnValue = Collections.unmodifiableList(referencedTables);
+    synchronized (this) {
+      this.importedKeys.put(key, returnValue);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the columns of the named table, reading them from the
+   * supplied {@link DatabaseMetaData} if they have not been read
+   * already.
+   *
+   * <p>The first time a table of a given schema is requested, the
+   * columns of every table in that schema are read with a single
+   * {@link DatabaseMetaData#getColumns(String, String, String,
+   * String)} call.  If the table is not among them, its columns alone
+   * are looked for, in case it has been created since; a table that
+   * still cannot be found is not remembered, so it is looked for
+   * again the next time this method is called.</p>
+   *
+   * <p>If {@code schema} is {@code null}, the columns of every table
+   * so named are returned, whatever its schema.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param schema the schema of the table; may be {@code null}
+   *
+   * @param tableName the name of the table; must not be {@code null}
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of
+   * five-element arrays, each holding the schema (possibly {@code
+   * null}), table name, column name, default value (possibly {@code
+   * null}) and {@code IS_AUTOINCREMENT} value (possibly {@code null})
+   * of a column
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  final List<String[]> getColumns(final DatabaseMetaData metaData, final String schema, final String tableName) throws SQLException {
+    assert metaData != null;
+    assert tableName != null;
+    final String key = key(metaData, schema, tableName);
+    synchronized (this) {
+      final List<String[]> cached = this.columns.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    final String schemaKey = key(metaData, schema, "");
+    final boolean schemaRead;
+    synchronized (this) {
+      schemaRead = this.schemasRead.contains(schemaKey);
+    }
+    if (!schemaRead) {
+      final Map<String, List<String[]>> schemaColumns = readColumns(metaData, schema, null);
+      assert schemaColumns != null;
+      synchronized (this) {
+        for (final Entry<String, List<String[]>> entry : schemaColumns.entrySet()) {
+          this.columns.put(key(metaData, schema, entry.getKey()), Collections.unmodifiableList(entry.getValue()));
+        }
+        this.schemasRead.add(schemaKey);
+        final List<String[]> cached = this.columns.get(key);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+    final List<String[]> tableColumns = readColumns(metaData, schema, tableName).get(tableName.toUpperCase(Locale.ENGLISH));
+    if (tableColumns == null) {
+      return Collections.emptyList();
+    }
+    final List<String[]> returnValue = Collections.unmodifiableList(tableColumns);
+    synchronized (this) {
+      this.columns.put(key, returnValue);
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Reads the columns of the named table, or of every table, in the
+   * supplied schema with a single call to the {@link
+   * DatabaseMetaData#getColumns(String, String, String, String)}
+   * method.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param schema the schema; may be {@code null} in which case
+   * every schema is read
+   *
+   * @param tableName the name of the table; may be {@code null} in
+   * which case every table is read
+   *
+   * @return a non-{@code null} {@link Map} of {@link List}s of
+   * five-element arrays, as described by the {@link
+   * #getColumns(DatabaseMetaData, String, String)} method, indexed by
+   * upper-case table name
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  private static final Map<String, List<String[]>> readColumns(final DatabaseMetaData metaData, final String schema, final String tableName) throws SQLException {
+    assert metaData != null;
+    final Map<String, List<String[]>> columns = new HashMap<String, List<String[]>>();
+    final String escape = metaData.getSearchStringEscape();
+    final String tableNamePattern = tableName == null ? "%" : escape(toIdentifierCase(metaData, tableName), escape);
+    final ResultSet rs = metaData.getColumns(null, escape(toIdentifierCase(metaData, schema), escape), tableNamePattern, "%");
+    if (rs != null) {
+      try {
+        while (rs.next()) {
+          final String columnTableName = rs.getString("TABLE_NAME");
+          final String columnName = rs.getString("COLUMN_NAME");
+          if (columnTableName != null && columnName != null && (tableName == null || tableName.equalsIgnoreCase(columnTableName))) {
+            final String key = columnTableName.toUpperCase(Locale.ENGLISH);
+            List<String[]> tableColumns = columns.get(key);
+            if (tableColumns == null) {
+              tableColumns = new ArrayList<String[]>();
+              columns.put(key, tableColumns);
+            }
+            tableColumns.add(new String[] { rs.getString("TABLE_SCHEM"), columnTableName, columnName, rs.getString("COLUMN_DEF"), getAutoIncrement(rs) });
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns the {@code IS_AUTOINCREMENT} value of the current row of
+   * the supplied {@link ResultSet}, as returned by {@link
+   * DatabaseMetaData#getColumns(String, String, String, String)}, or
+   * {@code null} if the driver does not report it.
+   *
+   * @param rs the {@link ResultSet} to read; must not be {@code null}
+   *
+   * @return {@code YES}, {@code NO}, an empty {@link String}, or
+   * {@code null}
+   */
+  private static final String getAutoIncrement(final ResultSet rs) {
+    assert rs != null;
+    try {
+      return rs.getString("IS_AUTOINCREMENT");
+    } catch (final SQLException driverPredatesJdbc4) {
+      return null;
+    }
+  }
+
+  /**
+   * Escapes the wildcard characters in the supplied identifier so
+   * that it may be used as a {@link DatabaseMetaData} search pattern
+   * that matches only itself.
+   *
+   * @param identifier the identifier to escape; may be {@code null}
+   * in which case {@code null} will be returned
+   *
+   * @param escape the search string escape, as returned by {@link
+   * DatabaseMetaData#getSearchStringEscape()}; may be {@code null}
+   * or empty in which case {@code identifier} will be returned
+   * unchanged
+   *
+   * @return the escaped identifier, or {@code null}
+   */
+  private static final String escape(final String identifier, final String escape) {
+    if (identifier == null || escape == null || escape.isEmpty()) {
+      return identifier;
+    }
+    return identifier.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+  }
+
+
+  /**
+   * Returns a key identifying the named table in the database
+   * described by the supplied {@link DatabaseMetaData}.
+   *
+   * @param metaData the {@link DatabaseMetaData}; must not be {@code
+   * null}
+   *
+   * @param schema the schema; may be {@code null}
+   *
+   * @param tableName the table name; must not be {@code null}
+   *
+   * @return a non-{@code null} key
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  private static final String key(final DatabaseMetaData metaData, final String schema, final String tableName) throws SQLException {
+    assert metaData != null;
+    assert tableName != null;
+    return new StringBuilder(String.valueOf(metaData.getURL())).append('|').append(schema == null ? "" : schema.toUpperCase(Locale.ENGLISH)).append('|').append(tableName.toUpperCase(Locale.ENGLISH)).toString();
+  }
+
+  /**
+   * Converts the supplied identifier to the case in which the
+   * database described by the supplied {@link DatabaseMetaData}
+   * stores unquoted identifiers.
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param identifier the identifier to convert; may be {@code null}
+   * in which case {@code null} will be returned
+   *
+   * @return the converted identifier, or {@code null}
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  static final String toIdentifierCase(final DatabaseMetaData metaData, final String identifier) throws SQLException {
+    assert metaData != null;
+    if (identifier == null) {
+      return null;
+    } else if (metaData.storesUpperCaseIdentifiers()) {
+      return identifier.toUpperCase(Locale.ENGLISH);
+    } else if (metaData.storesLowerCaseIdentifiers()) {
+      return identifier.toLowerCase(Locale.ENGLISH);
+    }
+    return identifier;
+  }
+
+}
@@ -0,0 +1,549 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.IDatabaseTester;
+
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.FilteredDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * A {@link DatabaseOperation} that splits an {@link IDataSet} into
+ * groups of tables that share no foreign keys with one another and
+ * applies a delegate {@link DatabaseOperation} to those groups
+ * concurrently, each over its own connection to the same database.
+ *
+ * <p>Groups are distributed over at most {@link #getThreads()}
+ * connections, balanced by row count.  One of them is always
+ * processed on the calling thread using the {@link
+ * IDatabaseConnection} supplied to the {@link
+ * #execute(IDatabaseConnection, IDataSet)} method; the others are
+ * processed on a bounded pool of threads using {@link
+ * IDatabaseConnection}s acquired from an {@link IDatabaseTester}
+ * whose {@link IDatabaseTester#getConnection()} method returns a new
+ * connection on every invocation, as that of a {@link
+ * org.dbunit.JdbcDatabaseTester} does.  The {@link
+ * #execute(IDatabaseConnection, IDataSet)} method does not return
+ * until every group has been processed.</p>
+ *
+ * <p>Within a group, tables are processed in the order in which they
+ * appear in the original {@link IDataSet}.</p>
+ *
+ * <p>The foreign keys of each table are read from the database
+ * metadata once per {@link ParallelDatabaseOperation} and remembered
+ * thereafter.  {@link DbUnitRule} shares what it reads across every
+ * test in a test class.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DbUnitTester#setUpThreads()
+ */
+public class ParallelDatabaseOperation extends DatabaseOperation {
+
+  /**
+   * The {@link DatabaseOperation} to apply to each group of tables.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final DatabaseOperation delegate;
+
+  /**
+   * The {@link IDatabaseTester} from which additional {@link
+   * IDatabaseConnection}s are acquired.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final IDatabaseTester connectionSource;
+
+  /**
+   * The maximum number of connections, including the one supplied to
+   * the {@link #execute(IDatabaseConnection, IDataSet)} method, over
+   * which groups of tables will be processed.
+   *
+   * <p>This field is always greater than {@code 0}.</p>
+   */
+  private final int threads;
+
+  /**
+   * The {@link MetaDataCache} holding the foreign keys of the tables
+   * this {@link ParallelDatabaseOperation} has seen.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final MetaDataCache metaDataCache;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ParallelDatabaseOperation}.
+   *
+   * @param delegate the {@link DatabaseOperation} to apply to each
+   * group of tables; must not be {@code null}
+   *
+   * @param connectionSource an {@link IDatabaseTester} whose {@link
+   * IDatabaseTester#getConnection()} method returns a new {@link
+   * IDatabaseConnection} to the database under test on every
+   * invocation; must not be {@code null}
+   *
+   * @param threads the maximum number of connections over which
+   * groups of tables will be processed; must be greater than {@code
+   * 0}
+   *
+   * @exception IllegalArgumentException if {@code delegate} or {@code
+   * connectionSource} is {@code null}, or if {@code threads} is less
+   * than {@code 1}
+   */
+  public ParallelDatabaseOperation(final DatabaseOperation delegate, final IDatabaseTester connectionSource, final int threads) {
+    this(delegate, connectionSource, threads, new MetaDataCache());
+  }
+
+  /**
+   * Creates a new {@link ParallelDatabaseOperation} that reads
+   * foreign keys through the supplied {@link MetaDataCache}.
+   *
+   * @param delegate the {@link DatabaseOperation} to apply to each
+   * group of tables; must not be {@code null}
+   *
+   * @param connectionSource an {@link IDatabaseTester} whose {@link
+   * IDatabaseTester#getConnection()} method returns a new {@link
+   * IDatabaseConnection} to the database under test on every
+   * invocation; must not be {@code null}
+   *
+   * @param threads the maximum number of connections over which
+   * groups of tables will be processed; must be greater than {@code
+   * 0}
+   *
+   * @param metaDataCache the {@link MetaDataCache} to use; must not
+   * be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code delegate}, {@code
+   * connectionSource} or {@code metaDataCache} is {@code null}, or
+   * if {@code threads} is less than {@code 1}
+   */
+  ParallelDatabaseOperation(final DatabaseOperation delegate, final IDatabaseTester connectionSource, final int threads, final MetaDataCache metaDataCache) {
+    super();
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate", new NullPointerException("delegate"));
+    }
+    if (connectionSource == null) {
+      throw new IllegalArgumentException("connectionSource", new NullPointerException("connectionSource"));
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1: " + threads);
+    }
+    if (metaDataCache == null) {
+      throw new IllegalArgumentException("metaDataCache", new NullPointerException("metaDataCache"));
+    }
+    this.metaDataCache = metaDataCache;
+    this.delegate = delegate;
+    this.connectionSource = connectionSource;
+    this.threads = threads;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum number of connections over which groups of
+   * tables will be processed.
+   *
+   * @return a number greater than {@code 0}
+   */
+  public int getThreads() {
+    return this.threads;
+  }
+
+  /**
+   * Applies this {@link ParallelDatabaseOperation}'s delegate {@link
+   * DatabaseOperation} to every group of independent tables in the
+   * supplied {@link IDataSet}, concurrently where possible, and
+   * returns when all groups have been processed.
+   *
+   * @param connection the {@link IDatabaseConnection} to use for the
+   * first group of tables; must not be {@code null}
+   *
+   * @param dataSet the {@link IDataSet} to process; must not be
+   * {@code null}
+   *
+   * @exception DatabaseUnitException if the delegate {@link
+   * DatabaseOperation} failed, or if processing was interrupted
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  public void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+    if (connection == null) {
+      throw new IllegalArgumentException("connection", new NullPointerException("connection"));
+    }
+    if (dataSet == null) {
+      throw new IllegalArgumentException("dataSet", new NullPointerException("dataSet"));
+    }
+    final List<IDataSet> partitions = this.partition(connection, dataSet);
+    assert partitions != null;
+    final int size = partitions.size();
+    if (size <= 1) {
+      this.delegate.execute(connection, dataSet);
+      return;
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(size - 1);
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(size - 1);
+      for (int i = 1; i < size; i++) {
+        final IDataSet partition = partitions.get(i);
+        futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public final Void call() throws Exception {
+              final IDatabaseConnection workerConnection = connectionSource.getConnection();
+              try {
+                copyConfig(connection, workerConnection);
+                delegate.execute(workerConnection, partition);
+              } finally {
+                workerConnection.close();
+              }
+              return null;
+            }
+          }));
+      }
+
+      Throwable failure = null;
+      try {
+        this.delegate.execute(connection, partitions.get(0));
+      } catch (final DatabaseUnitException e) {
+        failure = e;
+      } catch (final SQLException e) {
+        failure = e;
+      } catch (final RuntimeException e) {
+        failure = e;
+      }
+
+      // Join every worker even if one has failed so that no worker is
+      // still writing when the test starts.
+      for (final Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (final ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+
+      if (failure instanceof DatabaseUnitException) {
+        throw (DatabaseUnitException)failure;
+      } else if (failure instanceof SQLException) {
+        throw (SQLException)failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException)failure;
+      } else if (failure instanceof Error) {
+        throw (Error)failure;
+      } else if (failure != null) {
+        throw new DatabaseUnitException(failure);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Splits the supplied {@link IDataSet} into at most {@link
+   * #getThreads()} {@link IDataSet}s, none of which contains a table
+   * that has a foreign key relationship with a table in another.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param connection the {@link IDatabaseConnection} whose metadata
+   * will be consulted; must not be {@code null}
+   *
+   * @param dataSet the {@link IDataSet} to split; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null}, non-empty {@link List} of {@link
+   * IDataSet}s
+   *
+   * @exception DataSetException if {@code dataSet} could not be read
+   *
+   * @exception SQLException if the database metadata could not be
+   * read
+   */
+  final List<IDataSet> partition(final IDatabaseConnection connection, final IDataSet dataSet) throws DataSetException, SQLException {
+    assert connection != null;
+    assert dataSet != null;
+    final String[] tableNames = dataSet.getTableNames();
+    if (this.threads <= 1 || tableNames == null || tableNames.length <= 1) {
+      return Collections.singletonList(dataSet);
+    }
+
+    final Map<String, Integer> indices = new HashMap<String, Integer>();
+    for (int i = 0; i < tableNames.length; i++) {
+      indices.put(tableNames[i].toUpperCase(Locale.ENGLISH), Integer.valueOf(i));
+    }
+
+    // Union every table with each table in the data set that it
+    // references.
+    final int[] parents = new int[tableNames.length];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = i;
+    }
+    final DatabaseMetaData metaData = connection.getConnection().getMetaData();
+    assert metaData != null;
+    for (int i = 0; i < tableNames.length; i++) {
+      String schema = connection.getSchema();
+      String tableName = tableNames[i];
+      final int dot = tableName.lastIndexOf('.');
+      if (dot >= 0) {
+        schema = tableName.substring(0, dot);
+        tableName = tableName.substring(dot + 1);
+      }
+      for (final String[] referencedTable : this.metaDataCache.getImportedKeys(metaData, schema, tableName)) {
+        final String referencedSchema = referencedTable[0];
+        final String referencedTableName = referencedTable[1];
+        Integer j = indices.get(referencedTableName.toUpperCase(Locale.ENGLISH));
+        if (j == null && referencedSchema != null) {
+          j = indices.get((referencedSchema + "." + referencedTableName).toUpperCase(Locale.ENGLISH));
+        }
+        if (j != null) {
+          parents[find(parents, i)] = find(parents, j.intValue());
+        }
+      }
+    }
+
+    // Collect the groups, preserving the data set's table order
+    // within each.
+    final Map<Integer, Group> groupsByRoot = new HashMap<Integer, Group>();
+    final List<Group> groups = new ArrayList<Group>();
+    for (int i = 0; i < tableNames.length; i++) {
+      final Integer root = Integer.valueOf(find(parents, i));
+      Group group = groupsByRoot.get(root);
+      if (group == null) {
+        group = new Group();
+        groupsByRoot.put(root, group);
+        groups.add(group);
+      }
+      final ITable table = dataSet.getTable(tableNames[i]);
+      group.add(i, table == null ? 0 : table.getRowCount());
+    }
+    if (groups.size() <= 1) {
+      return Collections.singletonList(dataSet);
+    }
+
+    // Assign the largest groups first, each to the least loaded
+    // partition.
+    Collections.sort(groups, new Comparator<Group>() {
+        @Override
+        public final int compare(final Group a, final Group b) {
+          return a.rows < b.rows ? 1 : a.rows > b.rows ? -1 : 0;
+        }
+      });
+    final int partitionCount = Math.min(this.threads, groups.size());
+    final Group[] partitionGroups = new Group[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      partitionGroups[i] = new Group();
+    }
+    for (final Group group : groups) {
+      Group lightest = partitionGroups[0];
+      for (int i = 1; i < partitionCount; i++) {
+        if (partitionGroups[i].rows < lightest.rows) {
+          lightest = partitionGroups[i];
+        }
+      }
+      lightest.addAll(group);
+    }
+
+    final List<IDataSet> partitions = new ArrayList<IDataSet>(partitionCount);
+    for (final Group partitionGroup : partitionGroups) {
+      Collections.sort(partitionGroup.tableIndices);
+      final String[] partitionTableNames = new String[partitionGroup.tableIndices.size()];
+      for (int i = 0; i < partitionTableNames.length; i++) {
+        partitionTableNames[i] = tableNames[partitionGroup.tableIndices.get(i).intValue()];
+      }
+      partitions.add(new FilteredDataSet(partitionTableNames, dataSet));
+    }
+    return partitions;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the representative of the set containing the supplied
+   * index in the supplied union-find forest, compressing paths along
+   * the way.
+   *
+   * @param parents the union-find forest; must not be {@code null}
+   *
+   * @param i the index whose representative should be returned
+   *
+   * @return the representative of the set containing {@code i}
+   */
+  private static final int find(final int[] parents, int i) {
+    assert parents != null;
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  /**
+   * Copies every {@linkplain DatabaseConfig#ALL_PROPERTIES DbUnit
+   * configuration property} that is set on the {@link DatabaseConfig}
+   * of the supplied {@code source} {@link IDatabaseConnection} to
+   * that of the supplied {@code target} {@link IDatabaseConnection},
+   * so that data types, statement factories and the like are treated
+   * identically on both.
+   *
+   * @param source the {@link IDatabaseConnection} to copy from; must
+   * not be {@code null}
+   *
+   * @param target the {@link IDatabaseConnection} to copy to; must
+   * not be {@code null}
+   */
+  private static final void copyConfig(final IDatabaseConnection source, final IDatabaseConnection target) {
+    assert source != null;
+    assert target != null;
+    final DatabaseConfig sourceConfig = source.getConfig();
+    final DatabaseConfig targetConfig = target.getConfig();
+    if (sourceConfig != null && targetConfig != null) {
+      for (final DatabaseConfig.ConfigProperty property : DatabaseConfig.ALL_PROPERTIES) {
+        if (property != null) {
+          final String name = property.getProperty();
+          final Object value = sourceConfig.getProperty(name);
+          if (value != null) {
+            targetConfig.setProperty(name, value);
+          }
+        }
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A set of indices of tables in an {@link IDataSet}, together with
+   * the total number of rows those tables contain.
+   *
+   * @author <a href="http://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Group {
+
+    /**
+     * The indices of the tables in this {@link Group}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final List<Integer> tableIndices;
+
+    /**
+     * The total number of rows contained by the tables in this
+     * {@link Group}.
+     */
+    private long rows;
+
+    /**
+     * Creates a new, empty {@link Group}.
+     */
+    private Group() {
+      super();
+      this.tableIndices = new ArrayList<Integer>();
+    }
+
+    /**
+     * Adds a table to this {@link Group}.
+     *
+     * @param tableIndex the index of the table to add
+     *
+     * @param rowCount the number of rows the table contains
+     */
+    private final void add(final int tableIndex, final int rowCount) {
+      this.tableIndices.add(Integer.valueOf(tableIndex));
+      this.rows += rowCount;
+    }
+
+    /**
+     * Adds every table in the supplied {@link Group} to this {@link
+     * Group}.
+     *
+     * @param other the {@link Group} whose tables should be added;
+     * must not be {@code null}
+     */
+    private final void addAll(final Group other) {
+      assert other != null;
+      this.tableIndices.addAll(other.tableIndices);
+      this.rows += other.rows;
+    }
+
+  }
+
+}
@@ -0,0 +1,662 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * A {@link DatabaseOperation} that realigns the sequences and
+ * identity columns belonging to the tables of an {@link IDataSet}
+ * with the keys that the {@link IDataSet} contains, so that rows
+ * inserted by a test after a fixture has been loaded do not collide
+ * with the fixture's rows.
+ *
+ * <p>The sequences and identity columns of a table are discovered
+ * from the database metadata the first time the table is encountered
+ * and are cached in a {@link MetaDataCache}; a {@link
+ * SequenceResetOperation} created by a {@link DbUnitRule} shares the
+ * cache the {@link DbUnitRule} uses for the current test class.  A
+ * table is looked for in the schema that prefixes its name in the
+ * {@link IDataSet}, or else in the {@linkplain
+ * IDatabaseConnection#getSchema() schema of the connection}.  If
+ * neither is known, tables so named in {@linkplain
+ * #isSystemSchema(String) system schemas} are ignored, and if tables
+ * so named still exist in more than one schema, the table is skipped
+ * and a warning is logged.  A column is considered to be an
+ * identity column if its {@code IS_AUTOINCREMENT} metadata value is
+ * {@code YES}, and to be backed by a sequence if its default value
+ * draws from one using either {@code NEXT VALUE FOR} or {@code
+ * nextval()}.</p>
+ *
+ * <p>Restart values are computed from the contents of the {@link
+ * IDataSet} rather than by querying the database.  A sequence shared
+ * by several tables is restarted once, after the largest value that
+ * any of them contains.  All resets are sent to the database in a
+ * single JDBC batch.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DbUnitTester#resetSequences()
+ */
+public class SequenceResetOperation extends DatabaseOperation {
+
+  /**
+   * The {@link Logger} used by instances of this class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Logger logger = Logger.getLogger(SequenceResetOperation.class.getName());
+
+  /**
+   * The upper-case names of schemas that commonly hold a database's
+   * own tables rather than an application's.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #isSystemSchema(String)
+   */
+  private static final Set<String> SYSTEM_SCHEMAS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("INFORMATION_SCHEMA", "PG_CATALOG", "SYS", "SYSIBM", "SYSCAT", "SYSCS_DIAG", "SYSCS_UTIL", "MYSQL", "PERFORMANCE_SCHEMA")));
+
+  /**
+   * A {@link Pattern} that extracts the name of a sequence from a
+   * column default value.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern SEQUENCE_PATTERN = Pattern.compile("(?i)(?:NEXT\\s+VALUE\\s+FOR\\s+([\\w.\"$]+))|(?:nextval\\s*\\(\\s*'([^']+)')");
+
+  /**
+   * The {@link MetaDataCache} in which the columns of the tables
+   * this {@link SequenceResetOperation} encounters are kept.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final MetaDataCache metaDataCache;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link SequenceResetOperation} that keeps its own
+   * {@link MetaDataCache}.
+   */
+  public SequenceResetOperation() {
+    this(new MetaDataCache());
+  }
+
+  /**
+   * Creates a new {@link SequenceResetOperation}.
+   *
+   * @param metaDataCache the {@link MetaDataCache} in which to keep
+   * the columns of the tables encountered; must not be {@code null}
+   */
+  SequenceResetOperation(final MetaDataCache metaDataCache) {
+    super();
+    if (metaDataCache == null) {
+      throw new IllegalArgumentException("metaDataCache", new NullPointerException("metaDataCache"));
+    }
+    this.metaDataCache = metaDataCache;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Resets every sequence and identity column belonging to a table in
+   * the supplied {@link IDataSet} so that the next value it yields is
+   * one greater than the largest value the {@link IDataSet} contains
+   * for the associated columns, or {@code 1} if the {@link IDataSet}
+   * contains no such values.
+   *
+   * <p>Columns that do not appear in the {@link IDataSet} are left
+   * alone, since their values were generated by the database.</p>
+   *
+   * @param connection the {@link IDatabaseConnection} to use; must
+   * not be {@code null}
+   *
+   * @param dataSet the {@link IDataSet} that was loaded; must not be
+   * {@code null}
+   *
+   * @exception DatabaseUnitException if {@code dataSet} could not be
+   * read
+   *
+   * @exception SQLException if a database error occurs
+   */
+  @Override
+  public void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+    if (connection == null) {
+      throw new IllegalArgumentException("connection", new NullPointerException("connection"));
+    }
+    if (dataSet == null) {
+      throw new IllegalArgumentException("dataSet", new NullPointerException("dataSet"));
+    }
+    final String[] tableNames = dataSet.getTableNames();
+    if (tableNames == null || tableNames.length <= 0) {
+      return;
+    }
+    final Connection c = connection.getConnection();
+    if (c == null) {
+      throw new IllegalStateException("connection.getConnection() == null");
+    }
+    final DatabaseMetaData metaData = c.getMetaData();
+    final String connectionSchema = connection.getSchema();
+
+    // Quoted, schema-qualified sequence names and quoted table and
+    // column name pairs, each mapped to the largest value the data
+    // set contains for it.
+    final Map<String, BigInteger> sequences = new LinkedHashMap<String, BigInteger>();
+    final Map<List<String>, BigInteger> identities = new LinkedHashMap<List<String>, BigInteger>();
+
+    for (final String dataSetTableName : tableNames) {
+      if (dataSetTableName != null) {
+        final int dot = dataSetTableName.lastIndexOf('.');
+        final String schema = dot < 0 ? connectionSchema : dataSetTableName.substring(0, dot);
+        List<String[]> columns = this.metaDataCache.getColumns(metaData, schema, dataSetTableName.substring(dot + 1));
+        assert columns != null;
+        if (schema == null) {
+          columns = this.withoutSystemSchemas(columns);
+        }
+        if (isInOneSchema(dataSetTableName, columns)) {
+          ITable table = null;
+          for (final String[] column : columns) {
+            assert column != null;
+            final String sequenceName = getSequenceName(column[3]);
+            if (sequenceName != null || "YES".equalsIgnoreCase(column[4])) {
+              if (table == null) {
+                table = dataSet.getTable(dataSetTableName);
+              }
+              final String columnName = getColumnName(table, column[2]);
+              if (columnName != null) {
+                final BigInteger maximum = getMaximumValue(table, columnName);
+                if (sequenceName == null) {
+                  final String quotedTableName;
+                  if (column[0] == null) {
+                    quotedTableName = quote(metaData, column[1]);
+                  } else {
+                    quotedTableName = new StringBuilder(quote(metaData, column[0])).append('.').append(quote(metaData, column[1])).toString();
+                  }
+                  putMaximum(identities, Arrays.asList(quotedTableName, quote(metaData, column[2])), maximum);
+                } else {
+                  putMaximum(sequences, qualifySequenceName(metaData, column[0], sequenceName), maximum);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    final List<String> statements = new ArrayList<String>();
+    for (final Entry<String, BigInteger> entry : sequences.entrySet()) {
+      statements.add(this.getSequenceResetStatement(entry.getKey(), entry.getValue().add(BigInteger.ONE)));
+    }
+    for (final Entry<List<String>, BigInteger> entry : identities.entrySet()) {
+      final List<String> key = entry.getKey();
+      statements.add(this.getIdentityResetStatement(key.get(0), key.get(1), entry.getValue().add(BigInteger.ONE)));
+    }
+
+    if (!statements.isEmpty()) {
+      final Statement statement = c.createStatement();
+      try {
+        for (final String sql : statements) {
+          statement.addBatch(sql);
+        }
+        statement.executeBatch();
+      } finally {
+        statement.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the SQL statement that restarts the supplied sequence at
+   * the supplied value.
+   *
+   * <p>This method never returns {@code null} and overrides must
+   * ensure that {@code null} is not returned.</p>
+   *
+   * <p>This implementation returns {@code ALTER SEQUENCE
+   * <i>sequenceName</i> RESTART WITH <i>next</i>}.</p>
+   *
+   * @param sequenceName the name of the sequence, qualified by its
+   * schema if the schema is known and quoted using the database's
+   * {@linkplain DatabaseMetaData#getIdentifierQuoteString()
+   * identifier quote string}; will never be {@code null}
+   *
+   * @param next the next value the sequence should yield; will never
+   * be {@code null}
+   *
+   * @return a non-{@code null} SQL statement
+   */
+  protected String getSequenceResetStatement(final String sequenceName, final BigInteger next) {
+    return new StringBuilder("ALTER SEQUENCE ").append(sequenceName).append(" RESTART WITH ").append(next).toString();
+  }
+
+  /**
+   * Returns the SQL statement that restarts the supplied identity
+   * column at the supplied value.
+   *
+   * <p>This method never returns {@code null} and overrides must
+   * ensure that {@code null} is not returned.</p>
+   *
+   * <p>This implementation returns {@code ALTER TABLE
+   * <i>tableName</i> ALTER COLUMN <i>columnName</i> RESTART WITH
+   * <i>next</i>}.</p>
+   *
+   * @param tableName the name of the table, qualified by its schema
+   * if the schema is known and quoted using the database's
+   * {@linkplain DatabaseMetaData#getIdentifierQuoteString()
+   * identifier quote string}; will never be {@code null}
+   *
+   * @param columnName the name of the identity column, quoted in the
+   * same way; will never be {@code null}
+   *
+   * @param next the next value the identity column should yield;
+   * will never be {@code null}
+   *
+   * @return a non-{@code null} SQL statement
+   */
+  protected String getIdentityResetStatement(final String tableName, final String columnName, final BigInteger next) {
+    return new StringBuilder("ALTER TABLE ").append(tableName).append(" ALTER COLUMN ").append(columnName).append(" RESTART WITH ").append(next).toString();
+  }
+
+
+  /**
+   * Returns {@code true} if the named schema holds the database's own
+   * tables rather than an application's.
+   *
+   * <p>Tables in such schemas are ignored when looking for a table
+   * whose schema is not known.</p>
+   *
+   * <p>This implementation returns {@code true} if {@code schema},
+   * ignoring case, is {@code INFORMATION_SCHEMA}, {@code PG_CATALOG},
+   * {@code SYS}, {@code SYSIBM}, {@code SYSCAT}, {@code SYSCS_DIAG},
+   * {@code SYSCS_UTIL}, {@code MYSQL} or {@code
+   * PERFORMANCE_SCHEMA}.</p>
+   *
+   * @param schema the name of the schema; may be {@code null} in
+   * which case {@code false} will be returned
+   *
+   * @return {@code true} if the named schema is a system schema
+   */
+  protected boolean isSystemSchema(final String schema) {
+    return schema != null && SYSTEM_SCHEMAS.contains(schema.toUpperCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Returns those of the supplied columns, as returned by the {@link
+   * MetaDataCache#getColumns(DatabaseMetaData, String, String)}
+   * method, that do not belong to tables in {@linkplain
+   * #isSystemSchema(String) system schemas}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param columns the columns to filter; must not be {@code null}
+   *
+   * @return a non-{@code null} {@link List} of columns
+   */
+  private final List<String[]> withoutSystemSchemas(final List<String[]> columns) {
+    assert columns != null;
+    final List<String[]> returnValue = new ArrayList<String[]>(columns.size());
+    for (final String[] column : columns) {
+      if (column != null && !this.isSystemSchema(column[0])) {
+        returnValue.add(column);
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns {@code true} if all of the supplied columns, as returned
+   * by the {@link MetaDataCache#getColumns(DatabaseMetaData, String,
+   * String)} method, belong to tables in the same schema, and logs
+   * why the named table will be skipped otherwise.
+   *
+   * @param dataSetTableName the name of the table in the {@link
+   * IDataSet}; must not be {@code null}
+   *
+   * @param columns the columns to inspect; must not be {@code null}
+   *
+   * @return {@code true} if the supplied columns name exactly one
+   * schema
+   */
+  private static final boolean isInOneSchema(final String dataSetTableName, final List<String[]> columns) {
+    assert dataSetTableName != null;
+    assert columns != null;
+    final Set<String> schemas = new LinkedHashSet<String>();
+    for (final String[] column : columns) {
+      schemas.add(column[0]);
+    }
+    final int size = schemas.size();
+    if (size <= 0) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.fine("No table named " + dataSetTableName + " was found; its sequences and identity columns were not reset");
+      }
+    } else if (size > 1 && logger.isLoggable(Level.WARNING)) {
+      logger.warning("Tables named " + dataSetTableName + " exist in the schemas " + schemas + "; their sequences and identity columns were not reset.  Qualify the table name in the data set, or set the schema attribute of its DbUnitTester annotation.");
+    }
+    return size == 1;
+  }
+
+  /**
+   * Records the supplied value under the supplied key in the supplied
+   * {@link Map} unless a larger value is already recorded there.
+   *
+   * @param maxima the {@link Map} to update; must not be {@code null}
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @param value the value; must not be {@code null}
+   */
+  private static final <K> void putMaximum(final Map<K, BigInteger> maxima, final K key, final BigInteger value) {
+    assert maxima != null;
+    assert key != null;
+    assert value != null;
+    final BigInteger old = maxima.get(key);
+    if (old == null || value.compareTo(old) > 0) {
+      maxima.put(key, value);
+    }
+  }
+
+  /**
+   * Returns the supplied sequence name, as it appears in a column
+   * default value, quoted and qualified by the supplied schema if it
+   * is not qualified already.
+   *
+   * <p>Parts of the name that are already quoted are kept as they
+   * are; other parts are converted to the case in which the database
+   * stores unquoted identifiers before they are quoted.</p>
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param schema the schema of the table whose column draws from the
+   * sequence, exactly as the database stores it; may be {@code null}
+   *
+   * @param sequenceName the sequence name; must not be {@code null}
+   *
+   * @return a non-{@code null}, quoted sequence name
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  private static final String qualifySequenceName(final DatabaseMetaData metaData, final String schema, final String sequenceName) throws SQLException {
+    assert metaData != null;
+    assert sequenceName != null;
+    final String quote = getQuote(metaData);
+    final StringBuilder sb = new StringBuilder();
+    final List<String> parts = split(sequenceName, quote.isEmpty() ? "\"" : quote);
+    if (parts.size() == 1 && schema != null) {
+      sb.append(quote(metaData, schema));
+    }
+    for (final String part : parts) {
+      if (sb.length() > 0) {
+        sb.append('.');
+      }
+      if (quote.isEmpty()) {
+        sb.append(part);
+      } else if (part.length() >= 2 * quote.length() && part.startsWith(quote) && part.endsWith(quote)) {
+        sb.append(part);
+      } else {
+        sb.append(quote(metaData, MetaDataCache.toIdentifierCase(metaData, part)));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Splits the supplied qualified name on the dots that do not
+   * appear within quotes.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param name the name to split; must not be {@code null}
+   *
+   * @param quote the identifier quote string; must not be {@code
+   * null} or empty
+   *
+   * @return a non-{@code null} {@link List} of at least one part
+   */
+  private static final List<String> split(final String name, final String quote) {
+    assert name != null;
+    assert quote != null;
+    assert !quote.isEmpty();
+    final List<String> parts = new ArrayList<String>();
+    boolean quoted = false;
+    int start = 0;
+    int i = 0;
+    while (i < name.length()) {
+      if (name.startsWith(quote, i)) {
+        quoted = !quoted;
+        i += quote.length();
+      } else {
+        if (!quoted && name.charAt(i) == '.') {
+          parts.add(name.substring(start, i));
+          start = i + 1;
+        }
+        i++;
+      }
+    }
+    parts.add(name.substring(start));
+    return parts;
+  }
+
+  /**
+   * Quotes the supplied identifier, exactly as the database stores
+   * it, using the database's {@linkplain
+   * DatabaseMetaData#getIdentifierQuoteString() identifier quote
+   * string}.
+   *
+   * <p>If the database does not support quoted identifiers, the
+   * identifier is returned unchanged.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @param identifier the identifier to quote; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null}, quoted identifier
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  private static final String quote(final DatabaseMetaData metaData, final String identifier) throws SQLException {
+    assert metaData != null;
+    assert identifier != null;
+    final String quote = getQuote(metaData);
+    if (quote.isEmpty()) {
+      return identifier;
+    }
+    return new StringBuilder(quote).append(identifier.replace(quote, quote + quote)).append(quote).toString();
+  }
+
+  /**
+   * Returns the database's {@linkplain
+   * DatabaseMetaData#getIdentifierQuoteString() identifier quote
+   * string}, or an empty {@link String} if the database does not
+   * support quoted identifiers.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param metaData the {@link DatabaseMetaData} to consult; must not
+   * be {@code null}
+   *
+   * @return a non-{@code null} quote string
+   *
+   * @exception SQLException if {@code metaData} could not be read
+   */
+  private static final String getQuote(final DatabaseMetaData metaData) throws SQLException {
+    assert metaData != null;
+    final String quote = metaData.getIdentifierQuoteString();
+    return quote == null ? "" : quote.trim();
+  }
+
+  /**
+   * Returns the name of the sequence from which the supplied column
+   * default value draws, or {@code null} if it does not draw from a
+   * sequence.
+   *
+   * @param columnDefault the column default value; may be {@code
+   * null} in which case {@code null} will be returned
+   *
+   * @return a sequence name, or {@code null}
+   */
+  private static final String getSequenceName(final String columnDefault) {
+    String sequenceName = null;
+    if (columnDefault != null) {
+      final Matcher matcher = SEQUENCE_PATTERN.matcher(columnDefault);
+      if (matcher.find()) {
+        sequenceName = matcher.group(1);
+        if (sequenceName == null) {
+          sequenceName = matcher.group(2);
+        }
+      }
+    }
+    return sequenceName;
+  }
+
+  /**
+   * Returns the name by which the supplied {@link ITable} knows the
+   * column whose name is equal, ignoring case, to the supplied
+   * column name.
+   *
+   * @param table the {@link ITable} to look in; must not be {@code
+   * null}
+   *
+   * @param columnName the column name to look for; must not be
+   * {@code null}
+   *
+   * @return the name of the column, or {@code null} if {@code table}
+   * has no such column
+   *
+   * @exception DataSetException if {@code table} could not be read
+   */
+  private static final String getColumnName(final ITable table, final String columnName) throws DataSetException {
+    assert table != null;
+    assert columnName != null;
+    final Column[] columns = table.getTableMetaData().getColumns();
+    if (columns != null) {
+      for (final Column column : columns) {
+        if (column != null && columnName.equalsIgnoreCase(column.getColumnName())) {
+          return column.getColumnName();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the largest integral value the supplied {@link ITable}
+   * contains in the named column, or {@code 0} if it contains no
+   * values in that column.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param table the {@link ITable} to read; must not be {@code null}
+   *
+   * @param columnName the name of the column to read; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} {@link BigInteger}
+   *
+   * @exception DataSetException if {@code table} could not be read,
+   * or if it contains a value in the named column that is not a
+   * number
+   */
+  private static final BigInteger getMaximumValue(final ITable table, final String columnName) throws DataSetException {
+    assert table != null;
+    assert columnName != null;
+    BigInteger maximum = BigInteger.ZERO;
+    final int rowCount = table.getRowCount();
+    for (int row = 0; row < rowCount; row++) {
+      final Object value = table.getValue(row, columnName);
+      if (value != null) {
+        final BigInteger integer;
+        try {
+          integer = new BigDecimal(value.toString().trim()).toBigInteger();
+        } catch (final NumberFormatException e) {
+          throw new DataSetException(e);
+        }
+        if (integer.compareTo(maximum) > 0) {
+          maximum = integer;
+        }
+      }
+    }
+    return maximum;
+  }
+
+}
@@ -0,0 +1,73 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.sql.SQLException;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.IDatabaseTester;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * A {@link DbUnitRule} that counts the {@link IDatabaseTester}s it
+ * configures and the tear-downs they perform, for tests that run
+ * nested test classes with {@link org.junit.runner.JUnitCore}.
+ */
+class CountingDbUnitRule extends DbUnitRule {
+
+  static volatile int setUps;
+
+  static volatile int tearDowns;
+
+  CountingDbUnitRule(final Object testInstance) {
+    super(testInstance);
+  }
+
+  static final void reset() {
+    setUps = 0;
+    tearDowns = 0;
+  }
+
+  @Override
+  protected void configureTester(final IDatabaseTester tester, final String dataSetResourceName) throws Exception {
+    super.configureTester(tester, dataSetResourceName);
+    setUps++;
+    tester.setTearDownOperation(new DatabaseOperation() {
+        @Override
+        public final void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+          tearDowns++;
+        }
+      });
+  }
+
+}
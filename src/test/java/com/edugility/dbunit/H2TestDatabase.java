@@ -0,0 +1,118 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.ITable;
+
+import org.dbunit.dataset.datatype.DataType;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * An {@link ExternalResource} that empties a named in-memory H2
+ * database, creates the tables a test needs in it, and opens a
+ * connection to it before each test.
+ */
+final class H2TestDatabase extends ExternalResource {
+
+  private final String url;
+
+  private final String[] ddl;
+
+  private Connection connection;
+
+  private IDatabaseConnection databaseConnection;
+
+  H2TestDatabase(final String name, final String... ddl) {
+    super();
+    this.url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    this.ddl = ddl;
+  }
+
+  final String getUrl() {
+    return this.url;
+  }
+
+  final Connection getConnection() {
+    return this.connection;
+  }
+
+  final IDatabaseConnection getDatabaseConnection() {
+    return this.databaseConnection;
+  }
+
+  @Override
+  protected void before() throws SQLException, DatabaseUnitException {
+    this.connection = DriverManager.getConnection(this.url, "sa", "");
+    this.execute("DROP ALL OBJECTS");
+    this.execute(this.ddl);
+    this.databaseConnection = new DatabaseConnection(this.connection);
+  }
+
+  @Override
+  protected void after() {
+    try {
+      this.connection.close();
+    } catch (final SQLException ignore) {
+
+    }
+  }
+
+  final void execute(final String... sql) throws SQLException {
+    final Statement s = this.connection.createStatement();
+    try {
+      for (final String statement : sql) {
+        s.execute(statement);
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  static final ITable table(final String tableName, final int... ids) throws DataSetException {
+    final DefaultTable table = new DefaultTable(tableName, new Column[] { new Column("ID", DataType.INTEGER) });
+    for (final int id : ids) {
+      table.addRow(new Object[] { Integer.valueOf(id) });
+    }
+    return table;
+  }
+
+}
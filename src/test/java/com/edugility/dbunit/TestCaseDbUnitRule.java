@@ -56,6 +56,9 @@ public class TestCaseDbUnitRule {
   @H2Connection(url = "jdbc:h2:mem:test", user = "SA", password = "", threadSafe = true)
   private Connection h2;
 
+  @DbUnitTester(connectionUrl = "jdbc:h2:mem:test")
+  private IDatabaseTester tester;
+
   public TestCaseDbUnitRule() {
     super();
   }
@@ -70,4 +73,11 @@ public class TestCaseDbUnitRule {
     assertNotNull(tester);
   }
 
+  @Test
+  public void testEagerInjection() {
+    assertNotNull(this.tester);
+    assertNotNull(this.c);
+    assertNotNull(this.dbUnitRule.getIDatabaseTester(this.c));
+  }
+
 }
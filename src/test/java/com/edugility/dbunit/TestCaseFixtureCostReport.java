@@ -0,0 +1,190 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbunit.IDatabaseTester;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.junit.Assert.*;
+
+public class TestCaseFixtureCostReport {
+
+  private static final long MILLIS = 1000000L;
+
+  public TestCaseFixtureCostReport() {
+    super();
+  }
+
+  @Test
+  public void testP95IsMaximumWithOneSample() {
+    final FixtureCostReport report = new FixtureCostReport();
+    final String name = "testP95IsMaximumWithOneSample";
+    report.recordDataSetSetUp(name, 42L * MILLIS, 0L);
+    assertEquals(1, report.getDataSetSetUpCount(name));
+    assertEquals(42L, report.getDataSetP95SetUpMillis(name));
+  }
+
+  @Test
+  public void testP95ExcludesSingleOutlierInTwentySamples() {
+    final FixtureCostReport report = new FixtureCostReport();
+    final String name = "testP95ExcludesSingleOutlierInTwentySamples";
+    report.recordDataSetSetUp(name, 1000L * MILLIS, 0L);
+    for (int i = 0; i < 19; i++) {
+      report.recordDataSetSetUp(name, 3L * MILLIS, 0L);
+    }
+    assertEquals(20, report.getDataSetSetUpCount(name));
+    assertEquals(3L, report.getDataSetP95SetUpMillis(name));
+  }
+
+  @Test
+  public void testP95OfOneThroughOneHundred() {
+    final FixtureCostReport report = new FixtureCostReport();
+    final String name = "testP95OfOneThroughOneHundred";
+    for (int i = 100; i > 0; i--) {
+      report.recordDataSetSetUp(name, i * MILLIS, 0L);
+    }
+    assertEquals(95L, report.getDataSetP95SetUpMillis(name));
+  }
+
+  @Test
+  public void testCsv() throws Exception {
+    final FixtureCostReport report = new FixtureCostReport();
+    final String name = "testCsv, with a comma";
+    report.recordDataSetSetUp(name, 10L * MILLIS, 3L);
+    report.recordDataSetSetUp(name, 30L * MILLIS, 4L);
+    report.recordTestClassSetUp(TestCaseFixtureCostReport.class, 50L * MILLIS, 7L);
+    report.recordTestClassTearDown(TestCaseFixtureCostReport.class, 5L * MILLIS);
+
+    final File file = File.createTempFile("dbunitunit", ".csv");
+    file.deleteOnExit();
+    report.write(file);
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+
+    assertFalse(lines.isEmpty());
+    assertEquals("kind,name,invocations,totalSetUpMillis,p95SetUpMillis,totalTearDownMillis,rowsWritten", lines.get(0));
+    assertEquals(3, lines.size());
+    assertEquals("testClass," + TestCaseFixtureCostReport.class.getName() + ",1,50,50,5,7", lines.get(1));
+    assertEquals("dataSet,\"testCsv, with a comma\",2,40,30,0,7", lines.get(2));
+  }
+
+  @Test
+  public void testBudgetFailsWhenExceeded() {
+    CountingDbUnitRule.reset();
+    final Result result = JUnitCore.runClasses(BudgetExceeded.class);
+    assertEquals(1, result.getFailureCount());
+    final Throwable failure = result.getFailures().get(0).getException();
+    assertTrue(failure instanceof AssertionError);
+    assertTrue(failure.getMessage().contains("exceeds its budget"));
+    // The tester was registered before the budget failed, so it was
+    // still torn down.
+    assertEquals(1, CountingDbUnitRule.tearDowns);
+  }
+
+  @Test
+  public void testBudgetNotEnforcedBelowMinimumSamples() {
+    final Result result = JUnitCore.runClasses(BudgetNotYetEnforced.class);
+    assertTrue(result.wasSuccessful());
+  }
+
+  static final class SlowDbUnitRule extends CountingDbUnitRule {
+
+    SlowDbUnitRule(final Object testInstance) {
+      super(testInstance);
+    }
+
+    @Override
+    protected void configureTester(final IDatabaseTester tester, final String dataSetResourceName) throws Exception {
+      super.configureTester(tester, dataSetResourceName);
+      Thread.sleep(5L);
+    }
+
+  }
+
+  public static class BudgetExceeded {
+
+    @Rule
+    public final DbUnitRule dbUnitRule = new SlowDbUnitRule(this);
+
+    @DbUnitTester(connectionUrl = "jdbc:h2:mem:budgetExceeded", dataSetResource = "budgetExceeded", setUpBudget = 0L, setUpBudgetSamples = 1)
+    private Connection c;
+
+    public BudgetExceeded() {
+      super();
+    }
+
+    @Test
+    public void testNothing() {
+
+    }
+
+  }
+
+  public static class BudgetNotYetEnforced {
+
+    @Rule
+    public final DbUnitRule dbUnitRule = new SlowDbUnitRule(this);
+
+    @DbUnitTester(connectionUrl = "jdbc:h2:mem:budgetNotYetEnforced", dataSetResource = "budgetNotYetEnforced", setUpBudget = 0L, setUpBudgetSamples = 1000)
+    private Connection c;
+
+    public BudgetNotYetEnforced() {
+      super();
+    }
+
+    @Test
+    public void testNothing() {
+      assertNotNull(this.c);
+    }
+
+  }
+
+}
@@ -0,0 +1,178 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.junit.Assert.*;
+
+public class TestCaseLazyDbUnitTester {
+
+  public TestCaseLazyDbUnitTester() {
+    super();
+  }
+
+  @Test
+  public void testUnusedLazyFieldIsNeitherSetUpNorTornDown() {
+    CountingDbUnitRule.reset();
+    final Result result = JUnitCore.runClasses(UnusedLazy.class);
+    assertTrue(result.wasSuccessful());
+    assertEquals(0, CountingDbUnitRule.setUps);
+    assertEquals(0, CountingDbUnitRule.tearDowns);
+    assertEquals(0, FixtureCostReport.getInstance().getDataSetSetUpCount("unusedLazy"));
+  }
+
+  @Test
+  public void testUsedLazyFieldIsSetUpAndTornDownOnce() {
+    CountingDbUnitRule.reset();
+    final Result result = JUnitCore.runClasses(UsedLazy.class);
+    assertTrue(result.wasSuccessful());
+    assertEquals(1, CountingDbUnitRule.setUps);
+    assertEquals(1, CountingDbUnitRule.tearDowns);
+    assertEquals(1, FixtureCostReport.getInstance().getDataSetSetUpCount("usedLazy"));
+  }
+
+  @Test
+  public void testPrePopulatedLazyFieldIsSetUpEagerly() {
+    CountingDbUnitRule.reset();
+    final Result result = JUnitCore.runClasses(PrePopulatedLazy.class);
+    assertTrue(result.wasSuccessful());
+    assertEquals(1, CountingDbUnitRule.setUps);
+    assertEquals(1, CountingDbUnitRule.tearDowns);
+  }
+
+  public static class UnusedLazy {
+
+    @Rule
+    public final DbUnitRule dbUnitRule = new CountingDbUnitRule(this);
+
+    @DbUnitTester(connectionUrl = "jdbc:h2:mem:unusedLazy", dataSetResource = "unusedLazy", lazy = true)
+    private Connection c;
+
+    public UnusedLazy() {
+      super();
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+      assertNotNull(this.c);
+      assertFalse(this.c.isClosed());
+      this.c.close();
+      assertTrue(this.c.isClosed());
+      try {
+        this.c.prepareStatement("SELECT 1");
+        fail();
+      } catch (final SQLException expected) {
+
+      }
+      try {
+        this.dbUnitRule.getIDatabaseTester(this.c);
+        fail();
+      } catch (final RuntimeException expected) {
+        assertTrue(expected.getCause() instanceof SQLException);
+      }
+    }
+
+    @Test
+    public void testNothing() {
+      assertNotNull(this.c);
+    }
+
+  }
+
+  public static class UsedLazy {
+
+    @Rule
+    public final DbUnitRule dbUnitRule = new CountingDbUnitRule(this);
+
+    @DbUnitTester(connectionUrl = "jdbc:h2:mem:usedLazy", dataSetResource = "usedLazy", lazy = true)
+    private Connection c;
+
+    public UsedLazy() {
+      super();
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+      this.c.close();
+    }
+
+    @Test
+    public void testUse() throws SQLException {
+      final Statement s = this.c.createStatement();
+      try {
+        s.execute("SELECT 1");
+      } finally {
+        s.close();
+      }
+    }
+
+  }
+
+  public static class PrePopulatedLazy {
+
+    @Rule
+    public final DbUnitRule dbUnitRule = new CountingDbUnitRule(this);
+
+    @DbUnitTester(dataSetResource = "prePopulatedLazy", lazy = true)
+    private Connection c;
+
+    private final Connection original;
+
+    public PrePopulatedLazy() throws SQLException {
+      super();
+      this.original = DriverManager.getConnection("jdbc:h2:mem:prePopulatedLazy", "sa", "");
+      this.c = this.original;
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+      this.original.close();
+    }
+
+    @Test
+    public void testFieldIsNotReplaced() {
+      assertSame(this.original, this.c);
+      assertFalse(Proxy.isProxyClass(this.c.getClass()));
+    }
+
+  }
+
+}
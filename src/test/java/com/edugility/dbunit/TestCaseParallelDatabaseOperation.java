@@ -0,0 +1,174 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.IDatabaseTester;
+import org.dbunit.JdbcDatabaseTester;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.dbunit.dataset.datatype.DataType;
+
+import org.dbunit.operation.DatabaseOperation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.edugility.dbunit.H2TestDatabase.table;
+
+import static org.junit.Assert.*;
+
+public class TestCaseParallelDatabaseOperation {
+
+  @Rule
+  public final H2TestDatabase db = new H2TestDatabase("parallel",
+                                                      "CREATE TABLE PARENT (ID INTEGER PRIMARY KEY)",
+                                                      "CREATE TABLE CHILD (ID INTEGER PRIMARY KEY, PARENT_ID INTEGER REFERENCES PARENT(ID))",
+                                                      "CREATE TABLE LONER (ID INTEGER PRIMARY KEY)",
+                                                      "CREATE TABLE OTHER (ID INTEGER PRIMARY KEY)");
+
+  private IDatabaseConnection idc;
+
+  private IDatabaseTester connectionSource;
+
+  public TestCaseParallelDatabaseOperation() {
+    super();
+  }
+
+  @Before
+  public void createConnectionSource() throws Exception {
+    this.idc = this.db.getDatabaseConnection();
+    this.connectionSource = new JdbcDatabaseTester("org.h2.Driver", this.db.getUrl(), "sa", "");
+  }
+
+  @Test
+  public void testForeignKeyLinkedTablesStayTogether() throws Exception {
+    final ParallelDatabaseOperation operation = new ParallelDatabaseOperation(DatabaseOperation.CLEAN_INSERT, this.connectionSource, 4);
+    final List<IDataSet> partitions = operation.partition(this.idc, dataSet(table("PARENT", 1, 2), child(1, 2)));
+    assertEquals(1, partitions.size());
+    assertEquals(Arrays.asList("PARENT", "CHILD"), Arrays.asList(partitions.get(0).getTableNames()));
+  }
+
+  @Test
+  public void testIndependentTablesAreSplit() throws Exception {
+    final ParallelDatabaseOperation operation = new ParallelDatabaseOperation(DatabaseOperation.CLEAN_INSERT, this.connectionSource, 4);
+    final List<IDataSet> partitions = operation.partition(this.idc, dataSet(table("LONER", 1), table("OTHER", 1)));
+    assertEquals(2, partitions.size());
+  }
+
+  @Test
+  public void testPartitionsAreBoundedByThreads() throws Exception {
+    final ParallelDatabaseOperation operation = new ParallelDatabaseOperation(DatabaseOperation.CLEAN_INSERT, this.connectionSource, 2);
+    final List<IDataSet> partitions = operation.partition(this.idc, dataSet(table("PARENT", 1, 2, 3), table("LONER", 1), child(1, 2), table("OTHER", 1)));
+    assertEquals(2, partitions.size());
+    // The foreign-key-linked pair is the heaviest group, keeps its
+    // data set order, and is never split.
+    assertEquals(Arrays.asList("PARENT", "CHILD"), Arrays.asList(partitions.get(0).getTableNames()));
+    assertEquals(Arrays.asList("LONER", "OTHER"), Arrays.asList(partitions.get(1).getTableNames()));
+  }
+
+  @Test
+  public void testWorkerFailurePropagates() throws Exception {
+    final ParallelDatabaseOperation operation = new ParallelDatabaseOperation(DatabaseOperation.CLEAN_INSERT, this.connectionSource, 2);
+    // OTHER has more rows, so it runs on the calling thread; LONER's
+    // duplicate primary key fails on the worker.
+    final IDataSet dataSet = dataSet(table("LONER", 1, 1), table("OTHER", 1, 2, 3));
+    assertEquals(2, operation.partition(this.idc, dataSet).size());
+    try {
+      operation.execute(this.idc, dataSet);
+      fail();
+    } catch (final DatabaseUnitException expected) {
+
+    } catch (final SQLException expected) {
+
+    }
+  }
+
+  @Test
+  public void testParallelLoadMatchesSequentialLoad() throws Exception {
+    final IDataSet dataSet = dataSet(table("PARENT", 1, 2, 3), child(1, 2, 3), table("LONER", 4, 5), table("OTHER", 6));
+
+    new ParallelDatabaseOperation(DatabaseOperation.CLEAN_INSERT, this.connectionSource, 4).execute(this.idc, dataSet);
+    final List<String> parallel = this.contents();
+
+    DatabaseOperation.CLEAN_INSERT.execute(this.idc, dataSet);
+    final List<String> sequential = this.contents();
+
+    assertEquals(Arrays.asList("PARENT:1", "PARENT:2", "PARENT:3", "CHILD:1", "CHILD:2", "CHILD:3", "LONER:4", "LONER:5", "OTHER:6"), sequential);
+    assertEquals(sequential, parallel);
+  }
+
+  private final List<String> contents() throws SQLException {
+    final List<String> contents = new ArrayList<String>();
+    final Statement s = this.db.getConnection().createStatement();
+    try {
+      for (final String tableName : new String[] { "PARENT", "CHILD", "LONER", "OTHER" }) {
+        final ResultSet rs = s.executeQuery("SELECT ID FROM " + tableName + " ORDER BY ID");
+        try {
+          while (rs.next()) {
+            contents.add(tableName + ":" + rs.getInt(1));
+          }
+        } finally {
+          rs.close();
+        }
+      }
+    } finally {
+      s.close();
+    }
+    return contents;
+  }
+
+  private static final IDataSet dataSet(final ITable... tables) throws Exception {
+    return new DefaultDataSet(tables);
+  }
+
+  private static final ITable child(final int... ids) throws Exception {
+    final DefaultTable table = new DefaultTable("CHILD", new Column[] { new Column("ID", DataType.INTEGER), new Column("PARENT_ID", DataType.INTEGER) });
+    for (final int id : ids) {
+      table.addRow(new Object[] { Integer.valueOf(id), Integer.valueOf(id) });
+    }
+    return table;
+  }
+
+}
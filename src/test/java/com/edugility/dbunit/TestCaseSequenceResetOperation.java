@@ -0,0 +1,193 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.dbunit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.math.BigInteger;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.edugility.dbunit.H2TestDatabase.table;
+
+import static org.junit.Assert.*;
+
+public class TestCaseSequenceResetOperation {
+
+  @Rule
+  public final H2TestDatabase db = new H2TestDatabase("sequenceReset",
+                                                      "CREATE SEQUENCE SHARED_SEQ",
+                                                      "CREATE TABLE A (ID BIGINT DEFAULT NEXT VALUE FOR SHARED_SEQ PRIMARY KEY)",
+                                                      "CREATE TABLE B (ID BIGINT DEFAULT NEXT VALUE FOR SHARED_SEQ PRIMARY KEY)");
+
+  private IDatabaseConnection idc;
+
+  private RecordingSequenceResetOperation operation;
+
+  public TestCaseSequenceResetOperation() {
+    super();
+  }
+
+  @Before
+  public void createOperation() {
+    this.idc = this.db.getDatabaseConnection();
+    this.operation = new RecordingSequenceResetOperation();
+  }
+
+  @Test
+  public void testSharedSequenceRestartsOnceAfterLargestValue() throws Exception {
+    this.operation.execute(this.idc, new DefaultDataSet(new ITable[] { table("A", 1, 7), table("B", 3) }));
+    assertEquals(Arrays.asList("ALTER SEQUENCE \"PUBLIC\".\"SHARED_SEQ\" RESTART WITH 8"), this.operation.statements);
+    assertEquals(8L, this.nextValue());
+  }
+
+  @Test
+  public void testAmbiguousTableIsSkipped() throws Exception {
+    this.db.execute("CREATE SCHEMA OTHER",
+                 "CREATE SEQUENCE OTHER.OTHER_SEQ",
+                 "CREATE TABLE OTHER.A (ID BIGINT DEFAULT NEXT VALUE FOR OTHER.OTHER_SEQ PRIMARY KEY)");
+    this.operation.execute(this.idc, new DefaultDataSet(table("A", 5)));
+    assertTrue(this.operation.statements.isEmpty());
+
+    this.operation.execute(this.idc, new DefaultDataSet(table("PUBLIC.A", 5)));
+    assertEquals(Arrays.asList("ALTER SEQUENCE \"PUBLIC\".\"SHARED_SEQ\" RESTART WITH 6"), this.operation.statements);
+  }
+
+  @Test
+  public void testTableSharingItsNameWithASystemTableIsReset() throws Exception {
+    // H2 also has an INFORMATION_SCHEMA.USERS table.
+    this.db.execute("CREATE SEQUENCE S_X",
+                 "CREATE TABLE USERS (ID BIGINT DEFAULT NEXT VALUE FOR S_X PRIMARY KEY)");
+    this.operation.execute(this.idc, new DefaultDataSet(table("USERS", 1, 5)));
+    assertEquals(Arrays.asList("ALTER SEQUENCE \"PUBLIC\".\"S_X\" RESTART WITH 6"), this.operation.statements);
+  }
+
+  @Test
+  public void testMissingTableIsLookedForAgain() throws Exception {
+    this.operation.execute(this.idc, new DefaultDataSet(table("C", 9)));
+    assertTrue(this.operation.statements.isEmpty());
+
+    this.db.execute("CREATE TABLE C (ID BIGINT DEFAULT NEXT VALUE FOR SHARED_SEQ PRIMARY KEY)");
+    this.operation.execute(this.idc, new DefaultDataSet(table("C", 9)));
+    assertEquals(Arrays.asList("ALTER SEQUENCE \"PUBLIC\".\"SHARED_SEQ\" RESTART WITH 10"), this.operation.statements);
+  }
+
+  @Test
+  public void testColumnsAreReadOncePerSchema() throws Exception {
+    final int[] getColumnsCalls = new int[1];
+    final DatabaseMetaData real = this.db.getConnection().getMetaData();
+    final DatabaseMetaData metaData = (DatabaseMetaData)Proxy.newProxyInstance(DatabaseMetaData.class.getClassLoader(), new Class<?>[] { DatabaseMetaData.class }, new InvocationHandler() {
+        @Override
+        public final Object invoke(final Object proxy, final Method method, final Object[] arguments) throws Throwable {
+          if ("getColumns".equals(method.getName())) {
+            getColumnsCalls[0]++;
+          }
+          try {
+            return method.invoke(real, arguments);
+          } catch (final InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+    final MetaDataCache cache = new MetaDataCache();
+
+    assertEquals(1, cache.getColumns(metaData, "PUBLIC", "A").size());
+    assertEquals(1, cache.getColumns(metaData, "PUBLIC", "B").size());
+    assertEquals(1, getColumnsCalls[0]);
+
+    // A table missing from the schema-wide read is looked for on its
+    // own, every time, until it exists.
+    assertTrue(cache.getColumns(metaData, "PUBLIC", "C").isEmpty());
+    assertEquals(2, getColumnsCalls[0]);
+    this.db.execute("CREATE TABLE C (ID BIGINT PRIMARY KEY)");
+    assertEquals(1, cache.getColumns(metaData, "PUBLIC", "C").size());
+    assertEquals(3, getColumnsCalls[0]);
+    assertEquals(1, cache.getColumns(metaData, "PUBLIC", "C").size());
+    assertEquals(3, getColumnsCalls[0]);
+  }
+
+  private final long nextValue() throws SQLException {
+    final Statement s = this.db.getConnection().createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT NEXT VALUE FOR SHARED_SEQ");
+      try {
+        assertTrue(rs.next());
+        return rs.getLong(1);
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+  }
+
+  private static final class RecordingSequenceResetOperation extends SequenceResetOperation {
+
+    private final List<String> statements;
+
+    private RecordingSequenceResetOperation() {
+      super();
+      this.statements = new ArrayList<String>();
+    }
+
+    @Override
+    protected String getSequenceResetStatement(final String sequenceName, final BigInteger next) {
+      final String statement = super.getSequenceResetStatement(sequenceName, next);
+      this.statements.add(statement);
+      return statement;
+    }
+
+    @Override
+    protected String getIdentityResetStatement(final String tableName, final String columnName, final BigInteger next) {
+      final String statement = super.getIdentityResetStatement(tableName, columnName, next);
+      this.statements.add(statement);
+      return statement;
+    }
+
+  }
+
+}